@@ -0,0 +1,166 @@
+/*
+ *  Copyright (C) 2023 The OmniROM Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.omnirom.omniswitch;
+
+import android.content.ComponentCallbacks2;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.pm.ActivityInfo;
+import android.content.pm.ApplicationInfo;
+import android.content.pm.PackageManager;
+import android.content.pm.ResolveInfo;
+import android.content.res.Resources;
+import android.graphics.drawable.Drawable;
+import android.util.Log;
+import android.util.LruCache;
+
+/**
+ * Labels and unthemed icons per activity and Resources per package.
+ * Several tasks of the same app and the app drawer share the entries.
+ * Must be invalidated on package and locale changes.
+ * Bounded to the recents plus the app drawer - a miss only costs a
+ * package manager call.
+ */
+public class AppInfoCache {
+    private static final String TAG = "OmniSwitch:AppInfoCache";
+    private static final boolean DEBUG = false;
+    // Resources keep the asset manager of the app open
+    private static final int MAX_RESOURCES = 16;
+    private static final int MAX_LABELS = 256;
+    // themed drawer icons are in the BitmapCache so these are only misses
+    private static final int MAX_ICONS = 64;
+
+    private static AppInfoCache sInstance;
+    private Context mContext;
+    private PackageManager mPackageManager;
+    private final LruCache<String, Resources> mResources = new LruCache<String, Resources>(MAX_RESOURCES);
+    private final LruCache<ComponentName, String> mLabels = new LruCache<ComponentName, String>(MAX_LABELS);
+    // constant states so every caller gets its own drawable instance
+    private final LruCache<ComponentName, Drawable.ConstantState> mIcons =
+            new LruCache<ComponentName, Drawable.ConstantState>(MAX_ICONS);
+
+    public static AppInfoCache getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new AppInfoCache(context);
+        }
+        return sInstance;
+    }
+
+    private AppInfoCache(Context context) {
+        mContext = context;
+        mPackageManager = context.getPackageManager();
+    }
+
+    /**
+     * @return null if the package is gone
+     */
+    public Resources getResources(ApplicationInfo info) {
+        Resources resources = mResources.get(info.packageName);
+        if (resources != null) {
+            return resources;
+        }
+        try {
+            resources = mPackageManager.getResourcesForApplication(info);
+        } catch (PackageManager.NameNotFoundException e) {
+            return null;
+        }
+        mResources.put(info.packageName, resources);
+        return resources;
+    }
+
+    public String getLabel(ResolveInfo info) {
+        final ComponentName component = getComponent(info.activityInfo);
+        String label = mLabels.get(component);
+        if (label != null) {
+            return label;
+        }
+        label = info.loadLabel(mPackageManager).toString();
+        mLabels.put(component, label);
+        return label;
+    }
+
+    /**
+     * Icon of the activity or its application as defined by the app
+     * @return null if there is none
+     */
+    public Drawable getIcon(ActivityInfo info) {
+        final ComponentName component = getComponent(info);
+        Resources resources = getResources(info.applicationInfo);
+        if (resources == null) {
+            return null;
+        }
+        final Drawable.ConstantState cached = mIcons.get(component);
+        if (cached != null) {
+            return cached.newDrawable(resources);
+        }
+        final int iconId = info.getIconResource();
+        if (iconId == 0) {
+            return null;
+        }
+        Drawable icon;
+        try {
+            icon = resources.getDrawable(iconId, null);
+        } catch (Resources.NotFoundException e) {
+            return null;
+        }
+        final Drawable.ConstantState state = icon.getConstantState();
+        if (state != null) {
+            mIcons.put(component, state);
+        }
+        return icon;
+    }
+
+    public void invalidatePackage(String packageName) {
+        if (DEBUG) Log.d(TAG, "invalidatePackage " + packageName);
+        mResources.remove(packageName);
+        removePackage(mLabels, packageName);
+        removePackage(mIcons, packageName);
+    }
+
+    /**
+     * Everything is outdated e.g. after locale or density changes
+     */
+    public void clear() {
+        if (DEBUG) Log.d(TAG, "clear");
+        mResources.evictAll();
+        mLabels.evictAll();
+        mIcons.evictAll();
+    }
+
+    public void onTrimMemory(int level) {
+        if (DEBUG) Log.d(TAG, "onTrimMemory " + level);
+        // the largest part and cheap to get again
+        mResources.evictAll();
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE
+                || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            mIcons.evictAll();
+        }
+    }
+
+    private static void removePackage(LruCache<ComponentName, ?> cache, String packageName) {
+        for (ComponentName component : cache.snapshot().keySet()) {
+            if (component.getPackageName().equals(packageName)) {
+                cache.remove(component);
+            }
+        }
+    }
+
+    private static ComponentName getComponent(ActivityInfo info) {
+        return new ComponentName(info.packageName, info.name);
+    }
+}
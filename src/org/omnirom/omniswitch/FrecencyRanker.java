@@ -0,0 +1,413 @@
+/*
+ *  Copyright (C) 2023 The OmniROM Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.omnirom.omniswitch;
+
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+
+/**
+ * Ranks packages by launches that decay exponentially with age. Each
+ * launch adds 1 to the score of its package and that contribution halves
+ * every half life. Launches in the same part of the day as now count
+ * extra so the ranking follows daily habits.
+ *
+ * Scores are kept as log(sum(exp(lambda * (launch - EPOCH)))). All scores
+ * decay at the same rate so the order only changes on a launch and only
+ * for the launched package. That lets the top entries of every time of
+ * day bucket be maintained incrementally and read in O(K).
+ *
+ * Does not depend on android so it can be run on a recorded trace offline.
+ */
+public class FrecencyRanker {
+    public static final int BUCKETS = 4;
+    // entries kept ranked per bucket - larger requests sort everything
+    public static final int TOP_K = 16;
+    private static final long HOUR = 60 * 60 * 1000;
+    private static final long DAY = 24 * HOUR;
+    // 2020-01-01 - keeps the log scores small
+    private static final long EPOCH = 1577836800000L;
+
+    public static class Params {
+        public static final Params DEFAULT = new Params(14 * DAY, 1.0f);
+
+        public final long mHalfLife;
+        // weight of the launches in the current time of day bucket
+        public final float mBucketWeight;
+
+        public Params(long halfLife, float bucketWeight) {
+            mHalfLife = halfLife;
+            mBucketWeight = bucketWeight;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Params)) {
+                return false;
+            }
+            Params p = (Params) o;
+            return mHalfLife == p.mHalfLife && mBucketWeight == p.mBucketWeight;
+        }
+
+        @Override
+        public int hashCode() {
+            return (int) mHalfLife * 31 + Float.floatToIntBits(mBucketWeight);
+        }
+
+        @Override
+        public String toString() {
+            return "halfLife = " + mHalfLife + " bucketWeight = " + mBucketWeight;
+        }
+    }
+
+    /**
+     * Result of replaying a trace
+     */
+    public static class Evaluation {
+        public int mLaunches;
+        // launched package was in the top K before the launch
+        public int mHits;
+        // sum of 1 / rank for hits
+        public double mReciprocalRanks;
+
+        public float getHitRate() {
+            return mLaunches == 0 ? 0 : (float) mHits / mLaunches;
+        }
+
+        public float getMeanReciprocalRank() {
+            return mLaunches == 0 ? 0 : (float) (mReciprocalRanks / mLaunches);
+        }
+
+        @Override
+        public String toString() {
+            return "launches = " + mLaunches + " hit rate = " + getHitRate()
+                    + " mrr = " + getMeanReciprocalRank();
+        }
+    }
+
+    private static class Entry {
+        final String mPackageName;
+        double mScore = Double.NEGATIVE_INFINITY;
+        final double[] mBucketScores = new double[BUCKETS];
+        long mLastLaunch;
+
+        Entry(String packageName) {
+            mPackageName = packageName;
+            for (int i = 0; i < BUCKETS; i++) {
+                mBucketScores[i] = Double.NEGATIVE_INFINITY;
+            }
+        }
+    }
+
+    private final Params mParams;
+    private final double mLambda;
+    private final double mLogBucketWeight;
+    private final TimeZone mTimeZone;
+    private final Map<String, Entry> mEntries = new HashMap<String, Entry>();
+    // best first per bucket
+    private final Entry[][] mTop = new Entry[BUCKETS][TOP_K];
+    private final int[] mTopSize = new int[BUCKETS];
+
+    public FrecencyRanker(Params params) {
+        this(params, TimeZone.getDefault());
+    }
+
+    public FrecencyRanker(Params params, TimeZone timeZone) {
+        mParams = params;
+        mLambda = Math.log(2) / params.mHalfLife;
+        mLogBucketWeight = Math.log(params.mBucketWeight);
+        mTimeZone = timeZone;
+    }
+
+    public Params getParams() {
+        return mParams;
+    }
+
+    public synchronized void recordLaunch(String packageName, long timestamp) {
+        Entry e = getOrCreate(packageName);
+        final double launch = mLambda * (timestamp - EPOCH);
+        final int bucket = getBucket(timestamp);
+        e.mScore = logAddExp(e.mScore, launch);
+        e.mBucketScores[bucket] = logAddExp(e.mBucketScores[bucket], launch);
+        e.mLastLaunch = Math.max(e.mLastLaunch, timestamp);
+        for (int b = 0; b < BUCKETS; b++) {
+            promote(b, e);
+        }
+    }
+
+    /**
+     * Approximate scores for packages that only have a count e.g. after
+     * the decay params changed - all launches are put at lastLaunch
+     */
+    public synchronized void seed(String packageName, int count, long lastLaunch) {
+        if (count <= 0) {
+            return;
+        }
+        Entry e = getOrCreate(packageName);
+        final double launches = Math.log(count) + mLambda * (lastLaunch - EPOCH);
+        e.mScore = logAddExp(e.mScore, launches);
+        final int bucket = getBucket(lastLaunch);
+        e.mBucketScores[bucket] = logAddExp(e.mBucketScores[bucket], launches);
+        e.mLastLaunch = Math.max(e.mLastLaunch, lastLaunch);
+        for (int b = 0; b < BUCKETS; b++) {
+            promote(b, e);
+        }
+    }
+
+    /**
+     * Top packages for the time of day of now
+     */
+    public synchronized List<String> getTop(int count, long now) {
+        final int bucket = getBucket(now);
+        List<String> top = new ArrayList<String>(Math.min(count, mEntries.size()));
+        if (count <= TOP_K) {
+            for (int i = 0; i < mTopSize[bucket] && i < count; i++) {
+                top.add(mTop[bucket][i].mPackageName);
+            }
+            return top;
+        }
+        for (Entry e : sortAll(bucket)) {
+            top.add(e.mPackageName);
+            if (top.size() == count) {
+                break;
+            }
+        }
+        return top;
+    }
+
+    /**
+     * @return 1 based rank for the time of day of now or 0 if not in the top K
+     */
+    public synchronized int getRank(String packageName, long now) {
+        final int bucket = getBucket(now);
+        for (int i = 0; i < mTopSize[bucket]; i++) {
+            if (mTop[bucket][i].mPackageName.equals(packageName)) {
+                return i + 1;
+            }
+        }
+        return 0;
+    }
+
+    public synchronized int size() {
+        return mEntries.size();
+    }
+
+    public synchronized void clear() {
+        mEntries.clear();
+        for (int b = 0; b < BUCKETS; b++) {
+            mTopSize[b] = 0;
+            Arrays.fill(mTop[b], null);
+        }
+    }
+
+    /**
+     * params, entry count, (package, last launch, score, bucket scores)*
+     */
+    public synchronized void write(DataOutput out) throws IOException {
+        out.writeLong(mParams.mHalfLife);
+        out.writeFloat(mParams.mBucketWeight);
+        out.writeInt(mEntries.size());
+        for (Entry e : mEntries.values()) {
+            out.writeUTF(e.mPackageName);
+            out.writeLong(e.mLastLaunch);
+            out.writeDouble(e.mScore);
+            for (int b = 0; b < BUCKETS; b++) {
+                out.writeDouble(e.mBucketScores[b]);
+            }
+        }
+    }
+
+    /**
+     * Ranker with the params and scores as written by write
+     */
+    public static FrecencyRanker read(DataInput in, TimeZone timeZone) throws IOException {
+        final Params params = new Params(in.readLong(), in.readFloat());
+        if (params.mHalfLife <= 0 || !(params.mBucketWeight > 0)) {
+            throw new IOException("invalid params " + params);
+        }
+        FrecencyRanker ranker = new FrecencyRanker(params, timeZone);
+        final int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            Entry e = new Entry(in.readUTF());
+            e.mLastLaunch = in.readLong();
+            e.mScore = in.readDouble();
+            for (int b = 0; b < BUCKETS; b++) {
+                e.mBucketScores[b] = in.readDouble();
+            }
+            ranker.mEntries.put(e.mPackageName, e);
+        }
+        ranker.rebuildTop();
+        return ranker;
+    }
+
+    /**
+     * Replay a trace in order and check how often the launched package
+     * was ranked in the top k just before
+     */
+    public static Evaluation evaluate(Params params, TimeZone timeZone, List<String> packageNames,
+            List<Long> timestamps, int k) {
+        FrecencyRanker ranker = new FrecencyRanker(params, timeZone);
+        Evaluation result = new Evaluation();
+        for (int i = 0; i < packageNames.size(); i++) {
+            final String packageName = packageNames.get(i);
+            final long timestamp = timestamps.get(i);
+            final int rank = ranker.getRank(packageName, timestamp);
+            result.mLaunches++;
+            if (rank != 0 && rank <= k) {
+                result.mHits++;
+                result.mReciprocalRanks += 1.0 / rank;
+            }
+            ranker.recordLaunch(packageName, timestamp);
+        }
+        return result;
+    }
+
+    /**
+     * Read a launch log as written by SwitchStatistics - (package, timestamp)*
+     */
+    public static void readTrace(InputStream is, List<String> packageNames, List<Long> timestamps)
+            throws IOException {
+        DataInputStream in = new DataInputStream(is);
+        try {
+            while (true) {
+                final String packageName = in.readUTF();
+                final long timestamp = in.readLong();
+                packageNames.add(packageName);
+                timestamps.add(timestamp);
+            }
+        } catch (EOFException e) {
+            // end of trace
+        }
+    }
+
+    private Entry getOrCreate(String packageName) {
+        Entry e = mEntries.get(packageName);
+        if (e == null) {
+            e = new Entry(packageName);
+            mEntries.put(packageName, e);
+        }
+        return e;
+    }
+
+    private int getBucket(long timestamp) {
+        return getTimeOfDayBucket(timestamp, mTimeZone);
+    }
+
+    /**
+     * @return 0 to BUCKETS - 1 for the local time of day
+     */
+    public static int getTimeOfDayBucket(long timestamp, TimeZone timeZone) {
+        final long local = timestamp + timeZone.getOffset(timestamp);
+        final long hour = ((local % DAY) + DAY) % DAY / HOUR;
+        return (int) (hour * BUCKETS / 24);
+    }
+
+    private double getKey(Entry e, int bucket) {
+        return logAddExp(e.mScore, mLogBucketWeight + e.mBucketScores[bucket]);
+    }
+
+    private boolean isBefore(Entry e1, double key1, Entry e2, double key2) {
+        if (key1 != key2) {
+            return key1 > key2;
+        }
+        return e1.mLastLaunch > e2.mLastLaunch;
+    }
+
+    // scores never drop so an entry can only move up on its own launch
+    private void promote(int bucket, Entry e) {
+        final Entry[] top = mTop[bucket];
+        final double key = getKey(e, bucket);
+        int pos = -1;
+        for (int i = 0; i < mTopSize[bucket]; i++) {
+            if (top[i] == e) {
+                pos = i;
+                break;
+            }
+        }
+        if (pos == -1) {
+            if (mTopSize[bucket] < TOP_K) {
+                pos = mTopSize[bucket]++;
+            } else {
+                final Entry last = top[TOP_K - 1];
+                if (!isBefore(e, key, last, getKey(last, bucket))) {
+                    return;
+                }
+                pos = TOP_K - 1;
+            }
+        }
+        while (pos > 0 && isBefore(e, key, top[pos - 1], getKey(top[pos - 1], bucket))) {
+            top[pos] = top[pos - 1];
+            pos--;
+        }
+        top[pos] = e;
+    }
+
+    private void rebuildTop() {
+        for (int b = 0; b < BUCKETS; b++) {
+            List<Entry> sorted = sortAll(b);
+            final int size = Math.min(TOP_K, sorted.size());
+            Arrays.fill(mTop[b], null);
+            for (int i = 0; i < size; i++) {
+                mTop[b][i] = sorted.get(i);
+            }
+            mTopSize[b] = size;
+        }
+    }
+
+    private List<Entry> sortAll(final int bucket) {
+        List<Entry> entries = new ArrayList<Entry>(mEntries.values());
+        Collections.sort(entries, new Comparator<Entry>() {
+            @Override
+            public int compare(Entry e1, Entry e2) {
+                final double key1 = getKey(e1, bucket);
+                final double key2 = getKey(e2, bucket);
+                if (isBefore(e1, key1, e2, key2)) {
+                    return -1;
+                }
+                if (isBefore(e2, key2, e1, key1)) {
+                    return 1;
+                }
+                return 0;
+            }
+        });
+        return entries;
+    }
+
+    // log(exp(a) + exp(b)) without overflow
+    private static double logAddExp(double a, double b) {
+        if (a == Double.NEGATIVE_INFINITY) {
+            return b;
+        }
+        if (b == Double.NEGATIVE_INFINITY) {
+            return a;
+        }
+        final double max = Math.max(a, b);
+        return max + Math.log1p(Math.exp(-Math.abs(a - b)));
+    }
+}
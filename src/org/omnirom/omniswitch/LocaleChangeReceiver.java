@@ -29,17 +29,19 @@ import org.omnirom.omniswitch.SwitchConfiguration;
 
 public class LocaleChangeReceiver extends BroadcastReceiver {
     private static final boolean DEBUG = false;
+    public static final String LOCALE_CHANGED_TAG = "LOCALE_CHANGED";
 
     @Override
     public void onReceive(final Context context, Intent intent) {
         if (DEBUG) Log.d("LocaleChangeReceiver", "onReceive " + intent.getAction());
         if (SwitchService.isRunning()){
+            AppInfoCache.getInstance(context).clear();
             PackageManager.getInstance(context).updatePackageList();
 
             // to force a reload of all adapters that show packages
             SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
-            boolean value = prefs.getBoolean("LOCALE_CHANGED", false);
-            prefs.edit().putBoolean("LOCALE_CHANGED", !value).commit();
+            boolean value = prefs.getBoolean(LOCALE_CHANGED_TAG, false);
+            prefs.edit().putBoolean(LOCALE_CHANGED_TAG, !value).commit();
         }
     }
 }
@@ -0,0 +1,402 @@
+/*
+ *  Copyright (C) 2023 The OmniROM Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.omnirom.omniswitch;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import android.content.Context;
+import android.util.Log;
+
+/**
+ * First order Markov model of app switches. For every package that was
+ * in front it counts which package got launched next, split by time of
+ * day. The best guesses for the current front package are used to warm
+ * icons and thumbs before the overlay opens.
+ *
+ * Memory is bounded - the least recently used source packages and the
+ * weakest targets of a source are dropped, counts are halved when a
+ * source gets too many.
+ *
+ * file: MAGIC, VERSION, stats, source count, (source, target count, (target, counts[BUCKETS])*)*
+ */
+public class NextAppPredictor {
+    private static final String TAG = "OmniSwitch:NextAppPredictor";
+    private static final boolean DEBUG = false;
+    private static final String FILENAME = "predictor.bin";
+    private static final int MAGIC = 0x4f534e50; // OSNP
+    private static final int VERSION = 1;
+    private static final int BUCKETS = FrecencyRanker.BUCKETS;
+    private static final int MAX_SOURCES = 48;
+    private static final int MAX_TARGETS = 8;
+    // counts of a source are halved above this
+    private static final int MAX_SOURCE_COUNT = 512;
+    // a launch in the current time of day counts that much more
+    private static final int BUCKET_WEIGHT = 2;
+    // launches between two saves
+    private static final int SAVE_INTERVAL = 20;
+    public static final int PREDICTIONS = 3;
+
+    private static class Target {
+        final String mPackageName;
+        final int[] mCounts = new int[BUCKETS];
+        int mTotal;
+
+        Target(String packageName) {
+            mPackageName = packageName;
+        }
+
+        int getScore(int bucket) {
+            return mTotal + BUCKET_WEIGHT * mCounts[bucket];
+        }
+    }
+
+    private static class Source {
+        final List<Target> mTargets = new ArrayList<Target>(MAX_TARGETS);
+        int mTotal;
+
+        Target get(String packageName) {
+            for (Target t : mTargets) {
+                if (t.mPackageName.equals(packageName)) {
+                    return t;
+                }
+            }
+            return null;
+        }
+
+        void halve() {
+            mTotal = 0;
+            Iterator<Target> nextTarget = mTargets.iterator();
+            while (nextTarget.hasNext()) {
+                Target t = nextTarget.next();
+                t.mTotal = 0;
+                for (int b = 0; b < BUCKETS; b++) {
+                    t.mCounts[b] /= 2;
+                    t.mTotal += t.mCounts[b];
+                }
+                if (t.mTotal == 0) {
+                    nextTarget.remove();
+                }
+                mTotal += t.mTotal;
+            }
+        }
+    }
+
+    private static NextAppPredictor sInstance;
+    private Context mContext;
+    private final TimeZone mTimeZone = TimeZone.getDefault();
+    private final ExecutorService mWriter = Executors.newSingleThreadExecutor();
+    // access ordered so the eldest entry is the least recently used source
+    private final LinkedHashMap<String, Source> mSources = new LinkedHashMap<String, Source>(
+            MAX_SOURCES, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Source> eldest) {
+            return size() > MAX_SOURCES;
+        }
+    };
+    private int mUnsaved;
+    // the file is merged only once - the instance outlives the service
+    private boolean mLoaded;
+    // accuracy of the predictions made just before a launch
+    private int mLaunches;
+    private int mTop1Hits;
+    private int mTopHits;
+    private int mPrefetches;
+
+    public static NextAppPredictor getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new NextAppPredictor(context);
+        }
+        return sInstance;
+    }
+
+    private NextAppPredictor(Context context) {
+        mContext = context;
+    }
+
+    /**
+     * @param from package in front when the launch happened - may be null
+     */
+    public void recordLaunch(String from, String to, long timestamp) {
+        if (from == null || from.equals(to)) {
+            return;
+        }
+        final int bucket = FrecencyRanker.getTimeOfDayBucket(timestamp, mTimeZone);
+        boolean save = false;
+        synchronized (mSources) {
+            final List<String> predicted = predictLocked(from, bucket, PREDICTIONS);
+            final int rank = predicted.indexOf(to);
+            mLaunches++;
+            if (rank == 0) {
+                mTop1Hits++;
+            }
+            if (rank >= 0) {
+                mTopHits++;
+            }
+            if (DEBUG) Log.d(TAG, from + " -> " + to + " predicted " + predicted);
+
+            Source source = mSources.get(from);
+            if (source == null) {
+                source = new Source();
+                mSources.put(from, source);
+            }
+            Target target = source.get(to);
+            if (target == null) {
+                if (source.mTargets.size() == MAX_TARGETS) {
+                    removeWeakest(source, bucket);
+                }
+                target = new Target(to);
+                source.mTargets.add(target);
+            }
+            target.mCounts[bucket]++;
+            target.mTotal++;
+            source.mTotal++;
+            if (source.mTotal > MAX_SOURCE_COUNT) {
+                source.halve();
+            }
+            if (++mUnsaved >= SAVE_INTERVAL) {
+                save = true;
+            }
+        }
+        if (save) {
+            save();
+        }
+    }
+
+    /**
+     * Most likely next packages best first
+     */
+    public List<String> predict(String from, long now, int count) {
+        if (from == null) {
+            return new ArrayList<String>();
+        }
+        final int bucket = FrecencyRanker.getTimeOfDayBucket(now, mTimeZone);
+        synchronized (mSources) {
+            return predictLocked(from, bucket, count);
+        }
+    }
+
+    /**
+     * Count the predictions that got prefetched
+     */
+    public void notePrefetch(int count) {
+        synchronized (mSources) {
+            mPrefetches += count;
+        }
+    }
+
+    public void dump(PrintWriter pw) {
+        synchronized (mSources) {
+            pw.println("NextAppPredictor: " + getStatsLocked());
+        }
+    }
+
+    public void load() {
+        mWriter.execute(new Runnable() {
+            @Override
+            public void run() {
+                read();
+            }
+        });
+    }
+
+    public void save() {
+        mWriter.execute(new Runnable() {
+            @Override
+            public void run() {
+                write();
+            }
+        });
+    }
+
+    public void clear() {
+        synchronized (mSources) {
+            mSources.clear();
+            // nothing on disk is wanted anymore
+            mLoaded = true;
+            mUnsaved = 0;
+            mLaunches = 0;
+            mTop1Hits = 0;
+            mTopHits = 0;
+            mPrefetches = 0;
+        }
+        mWriter.execute(new Runnable() {
+            @Override
+            public void run() {
+                getFile().delete();
+            }
+        });
+    }
+
+    private List<String> predictLocked(String from, int bucket, int count) {
+        List<String> predicted = new ArrayList<String>(count);
+        // a source that is asked for stays as well
+        Source source = mSources.get(from);
+        if (source == null) {
+            return predicted;
+        }
+        List<Target> sorted = new ArrayList<Target>(source.mTargets);
+        // small enough for a selection
+        for (int i = 0; i < sorted.size() && predicted.size() < count; i++) {
+            int best = i;
+            for (int j = i + 1; j < sorted.size(); j++) {
+                if (sorted.get(j).getScore(bucket) > sorted.get(best).getScore(bucket)) {
+                    best = j;
+                }
+            }
+            Target t = sorted.get(best);
+            sorted.set(best, sorted.get(i));
+            sorted.set(i, t);
+            predicted.add(t.mPackageName);
+        }
+        return predicted;
+    }
+
+    private void removeWeakest(Source source, int bucket) {
+        Target weakest = null;
+        for (Target t : source.mTargets) {
+            if (weakest == null || t.getScore(bucket) < weakest.getScore(bucket)) {
+                weakest = t;
+            }
+        }
+        source.mTargets.remove(weakest);
+        source.mTotal -= weakest.mTotal;
+    }
+
+    private String getStatsLocked() {
+        return "sources = " + mSources.size() + " launches = " + mLaunches
+                + " top1 hits = " + mTop1Hits + " top" + PREDICTIONS + " hits = " + mTopHits
+                + " prefetches = " + mPrefetches;
+    }
+
+    private File getFile() {
+        return new File(mContext.getFilesDir(), FILENAME);
+    }
+
+    private void write() {
+        // else the launches on disk are overwritten by the live ones
+        read();
+        File tmp = new File(mContext.getFilesDir(), FILENAME + ".tmp");
+        try (FileOutputStream fos = new FileOutputStream(tmp);
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos))) {
+            synchronized (mSources) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(mLaunches);
+                out.writeInt(mTop1Hits);
+                out.writeInt(mTopHits);
+                out.writeInt(mPrefetches);
+                out.writeInt(mSources.size());
+                for (Map.Entry<String, Source> entry : mSources.entrySet()) {
+                    final Source source = entry.getValue();
+                    out.writeUTF(entry.getKey());
+                    out.writeInt(source.mTargets.size());
+                    for (Target t : source.mTargets) {
+                        out.writeUTF(t.mPackageName);
+                        for (int b = 0; b < BUCKETS; b++) {
+                            out.writeInt(t.mCounts[b]);
+                        }
+                    }
+                }
+                mUnsaved = 0;
+            }
+            out.flush();
+            fos.getFD().sync();
+        } catch (IOException e) {
+            Log.e(TAG, "write", e);
+            tmp.delete();
+            return;
+        }
+        if (!tmp.renameTo(getFile())) {
+            Log.e(TAG, "write: rename failed");
+            tmp.delete();
+        }
+    }
+
+    private void read() {
+        synchronized (mSources) {
+            if (mLoaded) {
+                return;
+            }
+            mLoaded = true;
+        }
+        final File file = getFile();
+        if (!file.exists()) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("unknown format");
+            }
+            final int launches = in.readInt();
+            final int top1Hits = in.readInt();
+            final int topHits = in.readInt();
+            final int prefetches = in.readInt();
+            // eldest first so the access order survives
+            final LinkedHashMap<String, Source> sources = new LinkedHashMap<String, Source>();
+            final int sourceCount = in.readInt();
+            for (int i = 0; i < sourceCount; i++) {
+                final String from = in.readUTF();
+                final Source source = new Source();
+                final int targetCount = in.readInt();
+                for (int j = 0; j < targetCount; j++) {
+                    final Target t = new Target(in.readUTF());
+                    for (int b = 0; b < BUCKETS; b++) {
+                        t.mCounts[b] = in.readInt();
+                        t.mTotal += t.mCounts[b];
+                    }
+                    if (j < MAX_TARGETS) {
+                        source.mTargets.add(t);
+                        source.mTotal += t.mTotal;
+                    }
+                }
+                sources.put(from, source);
+            }
+            synchronized (mSources) {
+                // launches recorded meanwhile are kept and stay the most recent
+                final LinkedHashMap<String, Source> live = new LinkedHashMap<String, Source>(mSources);
+                mSources.clear();
+                mSources.putAll(sources);
+                mSources.putAll(live);
+                mLaunches += launches;
+                mTop1Hits += top1Hits;
+                mTopHits += topHits;
+                mPrefetches += prefetches;
+            }
+            if (DEBUG) Log.d(TAG, "read " + sourceCount + " sources");
+        } catch (IOException e) {
+            Log.e(TAG, "read", e);
+        }
+    }
+}
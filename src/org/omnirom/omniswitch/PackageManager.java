@@ -20,27 +20,28 @@ package org.omnirom.omniswitch;
 import java.net.URISyntaxException;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import org.omnirom.omniswitch.ui.BitmapCache;
 import org.omnirom.omniswitch.ui.BitmapUtils;
 import org.omnirom.omniswitch.ui.IconPackHelper;
+import org.omnirom.omniswitch.ui.IconPrewarmer;
 
 import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
 import android.content.SharedPreferences;
 import android.content.pm.ActivityInfo;
-import android.content.pm.ApplicationInfo;
 import android.content.pm.PackageManager.NameNotFoundException;
 import android.content.pm.ResolveInfo;
 import android.graphics.drawable.Drawable;
 import android.graphics.drawable.BitmapDrawable;
+import android.os.Handler;
+import android.os.Looper;
 import android.preference.PreferenceManager;
 import android.text.TextUtils;
 import android.util.Log;
@@ -49,18 +50,19 @@ public class PackageManager {
     private static final boolean DEBUG = false;
     private static final String TAG = "PackageManager";
 
-    private Map<String, PackageItem> mInstalledPackages;
-    private List<PackageItem> mInstalledPackagesList;
     private Context mContext;
-    private boolean mInitDone;
+    // null until the first load - replaced as a whole on every change
+    private volatile PackageSnapshot mSnapshot;
+    private volatile int mGeneration;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final List<OnPackageChangeListener> mListeners = new CopyOnWriteArrayList<OnPackageChangeListener>();
     private static PackageManager sInstance;
 
-    public static final String PACKAGES_UPDATED_TAG = "PACKAGES_UPDATED";
-
     public static class PackageItem implements Comparable<PackageItem> {
         private CharSequence title;
         private String packageName;
         private Intent intent;
+        private String intentUri;
         private ActivityInfo activity;
 
         public Intent getIntentRaw() {
@@ -68,7 +70,14 @@ public class PackageManager {
         }
 
         public String getIntent() {
-            return intent.toUri(0);
+            if (intentUri == null) {
+                intentUri = intent.toUri(0);
+            }
+            return intentUri;
+        }
+
+        public String getPackageName() {
+            return packageName;
         }
 
         public CharSequence getTitle() {
@@ -93,6 +102,54 @@ public class PackageManager {
         }
     }
 
+    /**
+     * Activities of one package that were added or removed
+     */
+    public static class PackageChange {
+        public enum Type {
+            ADDED,
+            REMOVED,
+            CHANGED
+        }
+
+        private final Type mType;
+        private final String mPackageName;
+        private final List<PackageItem> mAdded;
+        private final List<PackageItem> mRemoved;
+
+        PackageChange(Type type, String packageName, List<PackageItem> added, List<PackageItem> removed) {
+            mType = type;
+            mPackageName = packageName;
+            mAdded = Collections.unmodifiableList(added);
+            mRemoved = Collections.unmodifiableList(removed);
+        }
+
+        public Type getType() {
+            return mType;
+        }
+
+        public String getPackageName() {
+            return mPackageName;
+        }
+
+        public List<PackageItem> getAdded() {
+            return mAdded;
+        }
+
+        public List<PackageItem> getRemoved() {
+            return mRemoved;
+        }
+
+        @Override
+        public String toString() {
+            return mType + " " + mPackageName + " added=" + mAdded + " removed=" + mRemoved;
+        }
+    }
+
+    public interface OnPackageChangeListener {
+        public void onPackageChanged(PackageChange change);
+    }
+
     public static PackageManager getInstance(Context context) {
         if (sInstance == null){
             sInstance = new PackageManager();
@@ -102,32 +159,41 @@ public class PackageManager {
     }
 
     private PackageManager() {
-        mInstalledPackages = new HashMap<String, PackageItem>();
-        mInstalledPackagesList = new ArrayList<PackageItem>();
     }
 
     private void setContext(Context context) {
         mContext = context;
     }
 
-    public synchronized List<PackageItem> getPackageList() {
-        if(!mInitDone){
-            updatePackageList();
+    /**
+     * Current state - never blocks once the first load is done
+     */
+    public PackageSnapshot getSnapshot() {
+        PackageSnapshot snapshot = mSnapshot;
+        if (snapshot == null) {
+            synchronized (this) {
+                if (mSnapshot == null) {
+                    updatePackageList();
+                }
+                snapshot = mSnapshot;
+            }
         }
-        return mInstalledPackagesList;
+        return snapshot;
     }
 
-    public synchronized Map<String, PackageItem> getPackageMap() {
-        if(!mInitDone){
-            updatePackageList();
-        }
-        return mInstalledPackages;
+    /**
+     * Sorted and unmodifiable
+     */
+    public List<PackageItem> getPackageList() {
+        return getSnapshot().getList();
+    }
+
+    public Map<String, PackageItem> getPackageMap() {
+        return getSnapshot().getMap();
     }
 
     public synchronized void clearPackageList() {
-        mInstalledPackages.clear();
-        mInstalledPackagesList.clear();
-        mInitDone = false;
+        mSnapshot = null;
     }
 
     public Drawable getPackageIcon(PackageItem item) {
@@ -141,6 +207,9 @@ public class PackageManager {
             }
         }
         if (icon == null || !IconPackHelper.getInstance(mContext).isIconPackLoaded()){
+            icon = AppInfoCache.getInstance(mContext).getIcon(item.activity);
+        }
+        if (icon == null) {
             try {
                 icon = pm.getActivityIcon(item.intent);
             } catch (NameNotFoundException e) {
@@ -152,20 +221,10 @@ public class PackageManager {
         return icon;
     }
 
-    public synchronized void reloadPackageList() {
-        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(mContext);
-        boolean old = prefs.getBoolean(PackageManager.PACKAGES_UPDATED_TAG, false);
-        updatePackageList();
-        prefs.edit().putBoolean(PackageManager.PACKAGES_UPDATED_TAG, !old).commit();
-    }
-
     public synchronized void updatePackageList() {
         if (DEBUG) Log.d(TAG, "updatePackageList");
         final android.content.pm.PackageManager pm = mContext.getPackageManager();
-        Set<String> packageNameList = new HashSet<String>();
-
-        mInstalledPackages.clear();
-        mInstalledPackagesList.clear();
+        List<PackageItem> packageList = new ArrayList<PackageItem>();
 
         final Intent mainIntent = new Intent(Intent.ACTION_MAIN, null);
         mainIntent.addCategory(Intent.CATEGORY_LAUNCHER);
@@ -173,89 +232,172 @@ public class PackageManager {
                 mainIntent, 0);
 
         for (ResolveInfo info : installedAppsInfo) {
-            ApplicationInfo appInfo = info.activityInfo.applicationInfo;
-
-            final PackageItem item = new PackageItem();
-            item.packageName = appInfo.packageName;
-            packageNameList.add(item.packageName);
-
-            ActivityInfo activity = info.activityInfo;
-            item.activity = activity;
-            ComponentName name = new ComponentName(
-                    activity.applicationInfo.packageName, activity.name);
-            Intent intent = new Intent(Intent.ACTION_MAIN);
-            intent.addCategory(Intent.CATEGORY_LAUNCHER);
-            intent.setFlags(Intent.FLAG_ACTIVITY_NEW_TASK
-                    | Intent.FLAG_ACTIVITY_RESET_TASK_IF_NEEDED);
-            intent.setComponent(name);
-            item.intent = intent;
-
-            item.title = Utils.getActivityLabel(pm, intent);
-            if (item.title == null) {
-                item.title = appInfo.loadLabel(pm);
+            packageList.add(createPackageItem(pm, info));
+        }
+        Collections.sort(packageList);
+        final PackageSnapshot snapshot = new PackageSnapshot(packageList);
+
+        updateFavorites(snapshot);
+        updateLockedApps(snapshot);
+        updateHiddenApps(snapshot);
+
+        mSnapshot = snapshot;
+        mGeneration++;
+        IconPrewarmer.getInstance(mContext).prewarm(snapshot.getList());
+    }
+
+    private PackageItem createPackageItem(android.content.pm.PackageManager pm, ResolveInfo info) {
+        final PackageItem item = createPackageItem(info.activityInfo, null);
+        item.title = Utils.getActivityLabel(pm, item.intent);
+        if (item.title == null) {
+            item.title = info.activityInfo.applicationInfo.loadLabel(pm);
+        }
+        return item;
+    }
+
+    // launcher item without a package manager query - also used by the tests
+    static PackageItem createPackageItem(ActivityInfo activity, CharSequence title) {
+        final PackageItem item = new PackageItem();
+        item.packageName = activity.applicationInfo.packageName;
+        item.activity = activity;
+        ComponentName name = new ComponentName(
+                activity.applicationInfo.packageName, activity.name);
+        Intent intent = new Intent(Intent.ACTION_MAIN);
+        intent.addCategory(Intent.CATEGORY_LAUNCHER);
+        intent.setFlags(Intent.FLAG_ACTIVITY_NEW_TASK
+                | Intent.FLAG_ACTIVITY_RESET_TASK_IF_NEEDED);
+        intent.setComponent(name);
+        item.intent = intent;
+        item.title = title;
+        return item;
+    }
+
+    /**
+     * Requery only the launcher activities of one package and tell the
+     * listeners what has changed.
+     * @param removed package is gone - no need to ask for its activities
+     */
+    public synchronized void updatePackage(String packageName, boolean removed) {
+        final PackageSnapshot oldSnapshot = mSnapshot;
+        if (oldSnapshot == null) {
+            // nobody has seen a list yet
+            return;
+        }
+        if (DEBUG) Log.d(TAG, "updatePackage " + packageName + " removed = " + removed);
+        final android.content.pm.PackageManager pm = mContext.getPackageManager();
+
+        List<PackageItem> removedItems = new ArrayList<PackageItem>(oldSnapshot.getByPackageName(packageName));
+        List<PackageItem> addedItems = new ArrayList<PackageItem>();
+        if (!removed) {
+            final Intent mainIntent = new Intent(Intent.ACTION_MAIN, null);
+            mainIntent.addCategory(Intent.CATEGORY_LAUNCHER);
+            mainIntent.setPackage(packageName);
+            for (ResolveInfo info : pm.queryIntentActivities(mainIntent, 0)) {
+                addedItems.add(createPackageItem(pm, info));
+            }
+        }
+        if (removedItems.size() == 0 && addedItems.size() == 0) {
+            return;
+        }
+        final PackageSnapshot snapshot = oldSnapshot.replacePackage(packageName, addedItems);
+
+        // only lost activities can invalidate stored app lists
+        if (isAnyItemGone(snapshot, removedItems)) {
+            updateFavorites(snapshot);
+            updateLockedApps(snapshot);
+            updateHiddenApps(snapshot);
+        }
+        mSnapshot = snapshot;
+        mGeneration++;
+
+        final PackageChange change = new PackageChange(removedItems.size() == 0 ? PackageChange.Type.ADDED :
+                (addedItems.size() == 0 ? PackageChange.Type.REMOVED : PackageChange.Type.CHANGED),
+                packageName, addedItems, removedItems);
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                for (OnPackageChangeListener listener : mListeners) {
+                    listener.onPackageChanged(change);
+                }
+            }
+        });
+    }
+
+    private boolean isAnyItemGone(PackageSnapshot snapshot, List<PackageItem> items) {
+        for (PackageItem item : items) {
+            if (!snapshot.contains(item.getIntent())) {
+                return true;
             }
-            mInstalledPackages.put(item.getIntent(), item);
-            mInstalledPackagesList.add(item);
         }
+        return false;
+    }
 
-        updateFavorites();
-        updateLockedApps(packageNameList);
-        updateHiddenApps(packageNameList);
+    /**
+     * Changes on every package list update so views can resync
+     * changes they missed while they were not listening
+     */
+    public int getGeneration() {
+        return mGeneration;
+    }
 
-        Collections.sort(mInstalledPackagesList);
-        mInitDone = true;
+    public void addOnPackageChangeListener(OnPackageChangeListener listener) {
+        mListeners.add(listener);
     }
 
-    public synchronized void updatePackageIcons() {
-        BitmapCache.getInstance(mContext).clear();
+    public void removeOnPackageChangeListener(OnPackageChangeListener listener) {
+        mListeners.remove(listener);
     }
 
-    public synchronized CharSequence getTitle(String intent) {
-        return getPackageMap().get(intent).getTitle();
+    public void updatePackageIcons() {
+        BitmapCache.getInstance(mContext).clear();
+        final PackageSnapshot snapshot = mSnapshot;
+        if (snapshot != null) {
+            IconPrewarmer.getInstance(mContext).prewarm(snapshot.getList());
+        }
     }
 
-    public synchronized PackageItem getPackageItem(String intent) {
-        return getPackageMap().get(intent);
+    public CharSequence getTitle(String intent) {
+        return getSnapshot().get(intent).getTitle();
     }
 
-    public synchronized PackageItem getPackageItemByComponent(Intent intent) {
-        String pkgName = intent.getComponent().getPackageName();
+    public PackageItem getPackageItem(String intent) {
+        return getSnapshot().get(intent);
+    }
 
-        Iterator<PackageItem> nextPackage = mInstalledPackagesList.iterator();
-        while(nextPackage.hasNext()){
-            PackageItem item = nextPackage.next();
-            ComponentName name = item.getIntentRaw().getComponent();
-            String pPkgName = name.getPackageName();
-            if (pkgName.equals(pPkgName)){
-                return item;
-            }
+    /**
+     * Exact component match or else the first activity of the same package
+     */
+    public PackageItem getPackageItemByComponent(Intent intent) {
+        final PackageSnapshot snapshot = getSnapshot();
+        final ComponentName component = intent.getComponent();
+        PackageItem item = snapshot.getByComponent(component);
+        if (item != null) {
+            return item;
+        }
+        List<PackageItem> items = snapshot.getByPackageName(component.getPackageName());
+        if (items.size() != 0) {
+            return items.get(0);
         }
         return null;
     }
 
-    public synchronized List<String> getPackageListForPackageName(String pkgName) {
+    public List<String> getPackageListForPackageName(String pkgName) {
         List<String> pkgList = new ArrayList<String>();
-        Iterator<PackageItem> nextPackage = mInstalledPackagesList.iterator();
-        while(nextPackage.hasNext()){
-            PackageItem item = nextPackage.next();
-            ComponentName name = item.getIntentRaw().getComponent();
-            String pPkgName = name.getPackageName();
-            if (pkgName.equals(pPkgName)){
-                pkgList.add(item.getIntent());
-            }
+        for (PackageItem item : getSnapshot().getByPackageName(pkgName)) {
+            pkgList.add(item.getIntent());
         }
         return pkgList;
     }
 
-    public synchronized boolean contains(String intent) {
-        return getPackageMap().containsKey(intent);
+    public boolean contains(String intent) {
+        return getSnapshot().contains(intent);
     }
 
     public void removePackageIconCache(String packageName) {
         BitmapCache.getInstance(mContext).removeBitmapToMemoryCache(packageName);
     }
 
-    private synchronized void updateFavorites() {
+    private void updateFavorites(PackageSnapshot snapshot) {
         SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(mContext);
         String favoriteListString = prefs.getString(SettingsActivity.PREF_FAVORITE_APPS, "");
         List<String> favoriteList = new ArrayList<String>();
@@ -267,7 +409,7 @@ public class PackageManager {
         while (nextFavorite.hasNext()) {
             String favorite = nextFavorite.next();
             // DONT USE getPackageMap() here!
-            if (!mInstalledPackages.containsKey(favorite)){
+            if (!snapshot.contains(favorite)){
                 changed = true;
                 continue;
             }
@@ -280,7 +422,8 @@ public class PackageManager {
         }
     }
 
-    private synchronized void updateLockedApps(Set<String> packageNameList) {
+    private void updateLockedApps(PackageSnapshot snapshot) {
+        final Set<String> packageNameList = snapshot.getPackageNames();
         SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(mContext);
         String appListString = prefs.getString(SettingsActivity.PREF_LOCKED_APPS_LIST, "");
         List<String> appsList = new ArrayList<String>();
@@ -304,7 +447,7 @@ public class PackageManager {
         }
     }
 
-    private synchronized void updateHiddenApps(Set<String> packageNameList) {
+    private void updateHiddenApps(PackageSnapshot snapshot) {
         SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(mContext);
         String hiddenAppsListString = prefs.getString(SettingsActivity.PREF_HIDDEN_APPS, "");
         List<String> hiddenAppsList = new ArrayList<String>();
@@ -316,7 +459,7 @@ public class PackageManager {
         while (nextHiddenApp.hasNext()) {
             String hiddenApp = nextHiddenApp.next();
             // DONT USE getPackageMap() here!
-            if (!mInstalledPackages.containsKey(hiddenApp)){
+            if (!snapshot.contains(hiddenApp)){
                 changed = true;
                 continue;
             }
@@ -25,16 +25,25 @@ import android.net.Uri;
 import android.preference.PreferenceManager;
 import android.util.Log;
 
+import org.omnirom.omniswitch.ui.IconPackCatalog;
+
 public class PackageReceiver extends BroadcastReceiver {
     private static final boolean DEBUG = false;
 
     @Override
     public void onReceive(final Context context, Intent intent) {
+        Uri data = intent.getData();
+        String packageName = data.getEncodedSchemeSpecificPart();
+        final boolean replacing = intent.getBooleanExtra(Intent.EXTRA_REPLACING, false);
+        final boolean removed = Intent.ACTION_PACKAGE_REMOVED.equals(intent.getAction());
+        if (!removed || !replacing) {
+            // icon pack pickers may be open without the service
+            IconPackCatalog.getInstance(context).updatePackage(packageName, removed);
+        }
         if (SwitchService.isRunning()){
-            Uri data = intent.getData();
-            String packageName = data.getEncodedSchemeSpecificPart();
             if (DEBUG) Log.d("OmniSwitch:PackageReceiver", "onReceive " + intent.getAction() + " " + packageName);
-            if (Intent.ACTION_PACKAGE_REMOVED.equals(intent.getAction())) {
+            AppInfoCache.getInstance(context).invalidatePackage(packageName);
+            if (removed) {
                 PackageManager.getInstance(context).removePackageIconCache(packageName);
             }
             // TODO
@@ -43,7 +52,12 @@ public class PackageReceiver extends BroadcastReceiver {
                 SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
                 prefs.edit().putBoolean(SettingsActivity.PREF_COLOR_CHANGED, !prefs.getBoolean(SettingsActivity.PREF_COLOR_CHANGED, false)).commit();
             }*/
-            PackageManager.getInstance(context).reloadPackageList();
+            if (removed && replacing) {
+                // the matching ADDED is on its way
+                return;
+            }
+            RecentTasksLoader.getInstance(context).invalidatePackage(packageName);
+            PackageManager.getInstance(context).updatePackage(packageName, removed);
         }
     }
 }
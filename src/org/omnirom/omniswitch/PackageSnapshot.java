@@ -0,0 +1,118 @@
+/*
+ *  Copyright (C) 2023 The OmniROM Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.omnirom.omniswitch;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import android.content.ComponentName;
+
+/**
+ * Immutable state of the installed launcher activities. Changes always
+ * create a new snapshot so readers can keep using the one they have.
+ */
+public class PackageSnapshot {
+    private final List<PackageManager.PackageItem> mList;
+    private final Map<String, PackageManager.PackageItem> mByIntent;
+    private final Map<ComponentName, PackageManager.PackageItem> mByComponent;
+    private final Map<String, List<PackageManager.PackageItem>> mByPackageName;
+
+    /**
+     * @param sortedList is owned by the snapshot afterwards
+     */
+    PackageSnapshot(List<PackageManager.PackageItem> sortedList) {
+        Map<String, PackageManager.PackageItem> byIntent = new HashMap<String, PackageManager.PackageItem>();
+        Map<ComponentName, PackageManager.PackageItem> byComponent = new HashMap<ComponentName, PackageManager.PackageItem>();
+        Map<String, List<PackageManager.PackageItem>> byPackageName = new HashMap<String, List<PackageManager.PackageItem>>();
+        for (PackageManager.PackageItem item : sortedList) {
+            byIntent.put(item.getIntent(), item);
+            byComponent.put(item.getIntentRaw().getComponent(), item);
+            List<PackageManager.PackageItem> items = byPackageName.get(item.getPackageName());
+            if (items == null) {
+                items = new ArrayList<PackageManager.PackageItem>(1);
+                byPackageName.put(item.getPackageName(), items);
+            }
+            items.add(item);
+        }
+        mList = Collections.unmodifiableList(sortedList);
+        mByIntent = Collections.unmodifiableMap(byIntent);
+        mByComponent = byComponent;
+        mByPackageName = byPackageName;
+    }
+
+    /**
+     * New snapshot with all activities of the package replaced
+     * @param items new activities - empty if the package is gone
+     */
+    PackageSnapshot replacePackage(String packageName, List<PackageManager.PackageItem> items) {
+        List<PackageManager.PackageItem> newList = new ArrayList<PackageManager.PackageItem>(
+                mList.size() + items.size());
+        for (PackageManager.PackageItem item : mList) {
+            if (!item.getPackageName().equals(packageName)) {
+                newList.add(item);
+            }
+        }
+        for (PackageManager.PackageItem item : items) {
+            int pos = Collections.binarySearch(newList, item);
+            newList.add(pos < 0 ? -pos - 1 : pos, item);
+        }
+        return new PackageSnapshot(newList);
+    }
+
+    /**
+     * Sorted and unmodifiable
+     */
+    public List<PackageManager.PackageItem> getList() {
+        return mList;
+    }
+
+    /**
+     * Keyed by intent uri and unmodifiable
+     */
+    public Map<String, PackageManager.PackageItem> getMap() {
+        return mByIntent;
+    }
+
+    public PackageManager.PackageItem get(String intent) {
+        return mByIntent.get(intent);
+    }
+
+    public PackageManager.PackageItem getByComponent(ComponentName component) {
+        return mByComponent.get(component);
+    }
+
+    public List<PackageManager.PackageItem> getByPackageName(String packageName) {
+        List<PackageManager.PackageItem> items = mByPackageName.get(packageName);
+        if (items == null) {
+            return Collections.emptyList();
+        }
+        return Collections.unmodifiableList(items);
+    }
+
+    public boolean contains(String intent) {
+        return mByIntent.containsKey(intent);
+    }
+
+    public Set<String> getPackageNames() {
+        return Collections.unmodifiableSet(mByPackageName.keySet());
+    }
+}
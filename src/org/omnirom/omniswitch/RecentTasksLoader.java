@@ -20,14 +20,19 @@ package org.omnirom.omniswitch;
 import static android.graphics.Bitmap.Config.ARGB_8888;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.CopyOnWriteArrayList;
 
 import org.omnirom.omniswitch.ui.BitmapCache;
 import org.omnirom.omniswitch.ui.BitmapUtils;
 import org.omnirom.omniswitch.ui.IconPackHelper;
+import org.omnirom.omniswitch.ui.IconPrewarmer;
 
 import android.app.ActivityManager;
 import android.app.ActivityTaskManager;
@@ -45,10 +50,8 @@ import android.graphics.GraphicBuffer;
 import android.graphics.Point;
 import android.graphics.drawable.Drawable;
 import android.hardware.HardwareBuffer;
-import android.os.AsyncTask;
 import android.os.Handler;
 import android.os.ParcelFileDescriptor;
-import android.os.Process;
 import android.os.RemoteException;
 import android.os.SystemClock;
 import android.util.Log;
@@ -58,11 +61,13 @@ public class RecentTasksLoader {
     private static final String TAG = "RecentTasksLoader";
     private static final boolean DEBUG = false;
     private static final int TASK_INIT_LOAD = 8;
+    // tasks published together after the first ones
+    private static final int TASK_APPEND_CHUNK = 16;
+    // most recent tasks that get a full resolution thumb
+    private static final int HIGH_RES_TASKS = 2;
 
     private Context mContext;
-    private AsyncTask<Void, List<TaskDescription>, Void> mTaskLoader;
-    private AsyncTask<Void, Void, Void> mTaskInfoLoader;
-    private AsyncTask<Void, TaskDescription, Void> mThumbnailLoader;
+    private TaskLoaderScheduler mScheduler;
     private Handler mHandler;
     private List<TaskDescription> mLoadedTasks;
     private List<TaskDescription> mLoadedTasksOriginal;
@@ -76,12 +81,31 @@ public class RecentTasksLoader {
     private PackageManager mPackageManager;
     private Drawable mDefaultAppIcon;
     private Set<String> mLockedAppsList;
+    // persistentTaskId -> task - survives between loads so unchanged
+    // tasks must not be resolved again
+    private final Map<Integer, TaskDescription> mTaskTable = new HashMap<Integer, TaskDescription>();
+    // dropped from the table or changed - views may still show outdated data
+    private final Set<Integer> mInvalidatedIds = new HashSet<Integer>();
+    // result of the last completed load to diff against
+    private volatile List<TaskDescription> mLastLoadedTasks = new ArrayList<TaskDescription>();
+    private volatile TaskChangeSet mLastChanges = TaskChangeSet.fullUpdate();
+    private ThumbnailCache mThumbnailCache;
+    private AppInfoCache mAppInfoCache;
+    // task in front when the list was loaded - its snapshot is not final
+    private volatile int mFrontTaskId = -1;
+    private TaskStackMonitor mTaskStackMonitor;
+    // set by stack events that are not part of the loaded list yet
+    private volatile boolean mTaskListDirty = true;
+    // only the task list is loaded until prefetchTaskInfo is called
+    private volatile boolean mSpeculative;
+    // load started by stack events - nobody waits for it so nothing is published
+    private volatile boolean mBackgroundRefresh;
 
     private enum State {
         LOADING, IDLE
     };
 
-    private State mState = State.IDLE;
+    private volatile State mState = State.IDLE;
 
     private static RecentTasksLoader sInstance;
 
@@ -93,12 +117,17 @@ public class RecentTasksLoader {
     }
 
     public static void killInstance() {
+        if (sInstance != null) {
+            sInstance.stopTaskStackMonitor();
+            sInstance.mScheduler.shutdown();
+        }
         sInstance = null;
     }
 
     private RecentTasksLoader(Context context) {
         mContext = context;
         mHandler = new Handler();
+        mScheduler = new TaskLoaderScheduler();
         mLoadedTasks = new CopyOnWriteArrayList<TaskDescription>();
         mLoadedTasksOriginal = new CopyOnWriteArrayList<TaskDescription>();
         mLockedAppsList = new HashSet<String>();
@@ -110,6 +139,8 @@ public class RecentTasksLoader {
         mDefaultThumbnail.eraseColor(0x00ffffff);
         mHasThumbPermissions = hasSystemPermission(context);
         mConfiguration = SwitchConfiguration.getInstance(mContext);
+        mThumbnailCache = ThumbnailCache.getInstance(mContext);
+        mAppInfoCache = AppInfoCache.getInstance(mContext);
         mDefaultAppIcon = BitmapUtils.getDefaultActivityIcon(mContext);
     }
 
@@ -148,21 +179,212 @@ public class RecentTasksLoader {
         return null;
     }
 
+    // Reuse the task of the last load if it is still the same or create a new one
+    private TaskDescription getOrCreateTaskDescription(ActivityManager.RecentTaskInfo recentInfo,
+            Set<Integer> changedIds) {
+        final boolean multiWindowMode = android.app.WindowConfiguration.inMultiWindowMode(
+                recentInfo.configuration.windowConfiguration.getWindowingMode());
+        TaskDescription item = null;
+        synchronized (mTaskTable) {
+            item = mTaskTable.get(recentInfo.persistentId);
+            if (mInvalidatedIds.remove(recentInfo.persistentId)) {
+                changedIds.add(recentInfo.persistentId);
+            }
+        }
+        if (item != null && !item.isKilled() && item.getTaskId() == recentInfo.id
+                && item.isMultiWindowMode() == multiWindowMode
+                && item.isSupportsSplitScreen() == recentInfo.supportsMultiWindow) {
+            if (item.getLastActiveTime() != recentInfo.lastActiveTime) {
+                if (DEBUG) {
+                    Log.d(TAG, "task changed id=" + recentInfo.persistentId);
+                }
+                item.setLastActiveTime(recentInfo.lastActiveTime);
+                // thumb is outdated
+                item.setNeedsUpdate(true);
+                changedIds.add(item.getPersistentTaskId());
+            }
+            return item;
+        }
+        if (item != null) {
+            // replaced by a new instance - views must rebind
+            changedIds.add(item.getPersistentTaskId());
+        }
+        item = createTaskDescription(recentInfo.id,
+                recentInfo.persistentId,
+                recentInfo.baseIntent, recentInfo.origActivity,
+                recentInfo.supportsMultiWindow, multiWindowMode);
+        if (item != null) {
+            item.setLastActiveTime(recentInfo.lastActiveTime);
+            synchronized (mTaskTable) {
+                mTaskTable.put(item.getPersistentTaskId(), item);
+            }
+        }
+        return item;
+    }
+
+    // drop all tasks that are no longer part of the recents
+    private void pruneTaskTable(Set<Integer> seenIds) {
+        synchronized (mTaskTable) {
+            Iterator<Integer> nextId = mTaskTable.keySet().iterator();
+            while (nextId.hasNext()) {
+                final int id = nextId.next();
+                if (!seenIds.contains(id)) {
+                    nextId.remove();
+                    mThumbnailCache.remove(id);
+                }
+            }
+        }
+    }
+
+    /**
+     * Forget all cached task infos e.g. after icon pack or locale changes
+     */
+    public void invalidateTaskTable() {
+        if (DEBUG) {
+            Log.d(TAG, "invalidateTaskTable");
+        }
+        synchronized (mTaskTable) {
+            mTaskTable.clear();
+            mInvalidatedIds.clear();
+        }
+        // next load must be handled as full update
+        mLastLoadedTasks = new ArrayList<TaskDescription>();
+        mTaskListDirty = true;
+    }
+
+    /**
+     * Forget the cached tasks of a package that was updated or removed
+     */
+    public void invalidatePackage(String packageName) {
+        synchronized (mTaskTable) {
+            Iterator<TaskDescription> nextTask = mTaskTable.values().iterator();
+            while (nextTask.hasNext()) {
+                TaskDescription td = nextTask.next();
+                if (td.getPackageName().equals(packageName)) {
+                    nextTask.remove();
+                    mInvalidatedIds.add(td.getPersistentTaskId());
+                }
+            }
+        }
+        mTaskListDirty = true;
+    }
+
+    /**
+     * Keep the task list current from task stack events so showing
+     * the overlay does not have to wait for a new load
+     */
+    public void startTaskStackMonitor(TaskStackMonitor.EventSource source) {
+        stopTaskStackMonitor();
+        mTaskStackMonitor = new TaskStackMonitor(source,
+                new TaskStackMonitor.OnTaskStackChangedListener() {
+            @Override
+            public void onTaskStackChanged(Set<Integer> snapshotChangedIds) {
+                handleTaskStackChanged(snapshotChangedIds);
+            }
+        });
+        mTaskStackMonitor.start();
+    }
+
+    public void stopTaskStackMonitor() {
+        if (mTaskStackMonitor != null) {
+            mTaskStackMonitor.stop();
+            mTaskStackMonitor = null;
+        }
+        mTaskListDirty = true;
+    }
+
+    /**
+     * True if the loaded (or loading) list already reflects all task
+     * stack changes so it can be shown without a reload
+     */
+    public boolean isTaskListCurrent() {
+        if (mTaskStackMonitor == null || !mPreloaded || mTaskListDirty) {
+            return false;
+        }
+        // time filter depends on when we look at the list
+        return !mConfiguration.mFilterActive || mConfiguration.mFilterTime == 0;
+    }
+
+    private void handleTaskStackChanged(Set<Integer> snapshotChangedIds) {
+        synchronized (mTaskTable) {
+            for (int id : snapshotChangedIds) {
+                TaskDescription td = mTaskTable.get(id);
+                if (td != null) {
+                    td.setNeedsUpdate(true);
+                    mInvalidatedIds.add(id);
+                }
+                mThumbnailCache.remove(id);
+            }
+        }
+        mTaskListDirty = true;
+        if (mSwitchManager != null && mSwitchManager.isShowing()) {
+            // the next show will reload - never change a list the user is looking at
+            if (DEBUG) {
+                Log.d(TAG, "task stack changed while showing");
+            }
+            return;
+        }
+        if (DEBUG) {
+            Log.d(TAG, "task stack changed - refresh " + snapshotChangedIds);
+        }
+        // task list and icons only - the hidden layouts are not touched
+        cancelLoadingTasks();
+        mBackgroundRefresh = true;
+        loadTasks(0, true, false, TaskLoaderScheduler.PRIORITY_BACKGROUND);
+    }
+
     private class PreloadTaskRunnable implements Runnable {
+        private final boolean mWithTaskInfo;
+
+        PreloadTaskRunnable(boolean withTaskInfo) {
+            mWithTaskInfo = withTaskInfo;
+        }
+
         @Override
         public void run() {
             if (DEBUG) {
-                Log.d(TAG, "preload start " + System.currentTimeMillis());
+                Log.d(TAG, "preload start " + System.currentTimeMillis() + " " + mWithTaskInfo);
             }
-            loadTasksInBackground(0, true, true);
+            loadTasksInBackground(0, mWithTaskInfo, mWithTaskInfo);
         }
     }
 
     public void preloadTasks() {
-        mPreloadTasksRunnable = new PreloadTaskRunnable();
+        mPreloadTasksRunnable = new PreloadTaskRunnable(true);
         mHandler.post(mPreloadTasksRunnable);
     }
 
+    /**
+     * Cheap preload when an open may be coming - only the task list
+     * is resolved until prefetchTaskInfo or a real load asks for more
+     */
+    public void preloadTasksSpeculative() {
+        mPreloadTasksRunnable = new PreloadTaskRunnable(false);
+        mHandler.post(mPreloadTasksRunnable);
+    }
+
+    /**
+     * Open is likely - load icons and thumbs of the speculative preload
+     */
+    public void prefetchTaskInfo() {
+        if (!mSpeculative) {
+            return;
+        }
+        mSpeculative = false;
+        if (mPreloaded && mState == State.IDLE) {
+            loadMissingTaskInfo();
+            prefetchThumbnails();
+        }
+        // else the running load does it when it publishes
+    }
+
+    /**
+     * Task list of the current load is complete
+     */
+    public boolean isTaskListLoaded() {
+        return mPreloaded && mState == State.IDLE;
+    }
+
     public void setSwitchManager(final SwitchManager manager) {
         mSwitchManager = manager;
     }
@@ -171,18 +393,7 @@ public class RecentTasksLoader {
         if (DEBUG) {
             Log.d(TAG, "cancelLoadingTasks state = " + mState);
         }
-        if (mTaskLoader != null) {
-            mTaskLoader.cancel(true);
-            mTaskLoader = null;
-        }
-        if (mTaskInfoLoader != null) {
-            mTaskInfoLoader.cancel(true);
-            mTaskInfoLoader = null;
-        }
-        if (mThumbnailLoader != null) {
-            mThumbnailLoader.cancel(true);
-            mThumbnailLoader = null;
-        }
+        mScheduler.cancelAll();
         if (mPreloadTasksRunnable != null) {
             mHandler.removeCallbacks(mPreloadTasksRunnable);
             mPreloadTasksRunnable = null;
@@ -193,7 +404,27 @@ public class RecentTasksLoader {
         mState = State.IDLE;
     }
 
+    /**
+     * Drop outstanding icon and thumb loads of a hidden overlay.
+     * A running task list load is kept since it may be a preload.
+     */
+    public void cancelPendingTaskInfo() {
+        if (mState == State.IDLE) {
+            if (DEBUG) {
+                Log.d(TAG, "cancelPendingTaskInfo");
+            }
+            mScheduler.cancelAll();
+        }
+    }
+
     public void loadTasksInBackground(int maxNumTasks, boolean withIcons, boolean withThumbs) {
+        // a running refresh publishes to the switch manager from now on
+        mBackgroundRefresh = false;
+        loadTasks(maxNumTasks, withIcons, withThumbs, TaskLoaderScheduler.PRIORITY_VISIBLE);
+    }
+
+    private void loadTasks(int maxNumTasks, boolean withIcons, final boolean withThumbs, int priority) {
+        mSpeculative = !withIcons && !withThumbs;
         if (mPreloaded && mState != State.IDLE) {
             if (DEBUG) {
                 Log.d(TAG, "recents preloaded: waiting for done");
@@ -204,8 +435,12 @@ public class RecentTasksLoader {
             if (DEBUG) {
                 Log.d(TAG, "recents preloaded " + mLoadedTasks);
             }
-            mSwitchManager.update(mLoadedTasks, mLoadedTasksOriginal);
-            loadMissingTaskInfo();
+            mSwitchManager.update(mLoadedTasks, mLoadedTasksOriginal, mLastChanges);
+            if (!mSpeculative) {
+                loadMissingTaskInfo();
+                // first page thumbs that are missing or outdated
+                prefetchThumbnails();
+            }
             return;
         }
         if (DEBUG) {
@@ -213,6 +448,8 @@ public class RecentTasksLoader {
         }
         mPreloaded = true;
         mState = State.LOADING;
+        // events from now on will be handled by the next load
+        mTaskListDirty = false;
         mLoadedTasks.clear();
         mLoadedTasksOriginal.clear();
 
@@ -220,35 +457,58 @@ public class RecentTasksLoader {
         mLockedAppsList.clear();
         mLockedAppsList.addAll(mConfiguration.mLockedAppList);
 
-        mTaskLoader = new AsyncTask<Void, List<TaskDescription>, Void>() {
-            @Override
-            protected void onProgressUpdate(
-                    List<TaskDescription>... values) {
-                if (!isCancelled()) {
-                    if (mSwitchManager != null) {
-                        if (DEBUG) {
-                            Log.d(TAG, "recents loaded");
+        mScheduler.submit("tasks", priority, new TaskLoaderScheduler.Job() {
+            // what the switch manager got so far
+            private List<TaskDescription> mPublished = mLastLoadedTasks;
+            private final Set<Integer> mPublishedChangedIds = new HashSet<Integer>();
+
+            /**
+             * Hand the tasks resolved so far to the switch manager.
+             * Tasks added since the last call are usually appended.
+             */
+            private void publishTasks(Set<Integer> changedIds) {
+                final List<TaskDescription> tasks = new ArrayList<TaskDescription>(mLoadedTasks);
+                final List<TaskDescription> tasksOriginal = new ArrayList<TaskDescription>(mLoadedTasksOriginal);
+                final Set<Integer> newChangedIds = new HashSet<Integer>(changedIds);
+                newChangedIds.removeAll(mPublishedChangedIds);
+                mPublishedChangedIds.addAll(changedIds);
+                final TaskChangeSet changes = TaskChangeSet.compute(mPublished, tasks, newChangedIds);
+                mPublished = tasks;
+
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (isCancelled()) {
+                            return;
                         }
-                        mSwitchManager.update(mLoadedTasks, mLoadedTasksOriginal);
-                        loadMissingTaskInfo();
-                    } else {
-                        if (DEBUG) {
-                            Log.d(TAG, "recents preloaded");
+                        if (mSwitchManager != null && !mBackgroundRefresh) {
+                            if (DEBUG) {
+                                Log.d(TAG, "recents published " + tasks.size());
+                            }
+                            mSwitchManager.update(tasks, tasksOriginal, changes);
+                            if (!mSpeculative) {
+                                loadMissingTaskInfo();
+                                if (!withThumbs) {
+                                    // speculative load that got escalated
+                                    prefetchThumbnails();
+                                }
+                            }
+                        } else {
+                            if (DEBUG) {
+                                Log.d(TAG, "recents preloaded");
+                            }
                         }
                     }
-                }
+                });
             }
 
             @Override
-            protected Void doInBackground(Void... params) {
+            public void run() {
                 long start = System.currentTimeMillis();
                 if (DEBUG) {
                     Log.d(TAG, "loadTasksInBackground " + mSwitchManager + " start " + start);
                 }
 
-                final int origPri = Process.getThreadPriority(Process.myTid());
-                Process.setThreadPriority(Process.THREAD_PRIORITY_FOREGROUND);
-
                 final List<ActivityManager.RecentTaskInfo> recentTasks = mActivityManager
                         .getRecentTasks(maxNumTasks == 0 ? ActivityManager.getMaxRecentTasksStatic() : maxNumTasks,
                                 ActivityManager.RECENT_IGNORE_UNAVAILABLE |
@@ -259,6 +519,11 @@ public class RecentTasksLoader {
                         .addCategory(Intent.CATEGORY_HOME).resolveActivityInfo(mPackageManager, 0);
                 boolean isFirstValidTask = true;
                 int preloadTaskNum = 0;
+                int publishedNum = 0;
+                // first tasks without a current thumb - loaded after they are published
+                final List<TaskDescription> thumbTasks = new ArrayList<TaskDescription>();
+                final Set<Integer> seenIds = new HashSet<Integer>();
+                final Set<Integer> changedIds = new HashSet<Integer>();
                 final boolean withIconPack = IconPackHelper.getInstance(mContext).isIconPackLoaded();
 
                 for (int i = 0; i < numTasks; ++i) {
@@ -272,19 +537,17 @@ public class RecentTasksLoader {
                     if (DEBUG) {
                         Log.d(TAG, "" + i + " recent item = " + recentInfo.baseIntent + " " + recentInfo.taskDescription.getLabel());
                     }
-                    TaskDescription item = createTaskDescription(recentInfo.id,
-                            recentInfo.persistentId,
-                            recentInfo.baseIntent, recentInfo.origActivity,
-                            recentInfo.supportsMultiWindow,
-                            android.app.WindowConfiguration.inMultiWindowMode(
-                                    recentInfo.configuration.windowConfiguration.getWindowingMode()));
+                    seenIds.add(recentInfo.persistentId);
+                    TaskDescription item = getOrCreateTaskDescription(recentInfo, changedIds);
 
                     if (item == null) {
                         continue;
                     }
 
-                    if (mLockedAppsList.contains(item.getPackageName())) {
-                        item.setLocked(true);
+                    final boolean locked = mLockedAppsList.contains(item.getPackageName());
+                    if (item.isLocked() != locked) {
+                        item.setLocked(locked);
+                        changedIds.add(item.getPersistentTaskId());
                     }
 
                     Intent intent = new Intent(recentInfo.baseIntent);
@@ -348,6 +611,9 @@ public class RecentTasksLoader {
                     if (isExcluded && !isFirstValidTask) {
                         continue;
                     }
+                    if (isFirstValidTask) {
+                        mFrontTaskId = item.getPersistentTaskId();
+                    }
                     isFirstValidTask = false;
 
                     mLoadedTasksOriginal.add(item);
@@ -358,43 +624,78 @@ public class RecentTasksLoader {
                         mLoadedTasks.add(item);
                     }
                     if (preloadTaskNum < TASK_INIT_LOAD) {
-                        if (withIcons) {
-                            String label = item.resolveInfo.loadLabel(mPackageManager).toString();
+                        // reused tasks only need what has changed
+                        if (withIcons && (item.getIcon() == null || item.getLabel() == null)) {
+                            String label = mAppInfoCache.getLabel(item.resolveInfo);
                             loadTaskIcon(item, withIconPack, label);
                             item.setLabel(label);
                         }
-                        if (withThumbs) {
-                            ThumbnailData b = getThumbnail(item.persistentTaskId);
+                        if (withThumbs && (item.getThumb() == null
+                                || changedIds.contains(item.getPersistentTaskId()))) {
+                            ThumbnailData b = mThumbnailCache.getIfCurrent(item.getPersistentTaskId(),
+                                    item.getLastActiveTime(), true);
                             if (b != null) {
                                 item.setThumb(b, false);
+                                item.setNeedsUpdate(false);
+                            } else {
+                                thumbTasks.add(item);
                             }
                         }
                         preloadTaskNum++;
                     }
+
+                    // first tiles as soon as they can be drawn - the rest in chunks
+                    final int loadedNum = mLoadedTasks.size();
+                    if ((publishedNum == 0 && loadedNum >= TASK_INIT_LOAD)
+                            || (publishedNum != 0 && loadedNum - publishedNum >= TASK_APPEND_CHUNK)) {
+                        publishTasks(changedIds);
+                        publishedNum = loadedNum;
+                        loadThumbnails(thumbTasks);
+                    }
                 }
                 if (!isCancelled()) {
-                    publishProgress(mLoadedTasks);
+                    pruneTaskTable(seenIds);
+                    mLastChanges = TaskChangeSet.compute(mLastLoadedTasks, mLoadedTasks, changedIds);
+                    mLastLoadedTasks = new ArrayList<TaskDescription>(mLoadedTasks);
+                    if (DEBUG) {
+                        Log.d(TAG, "recents changes " + mLastChanges);
+                    }
+                    publishTasks(changedIds);
+                    loadThumbnails(thumbTasks);
+                    upgradeThumbnails();
+                    // every front change ends up here through the stack event refresh
+                    prefetchPredicted();
                 }
                 if (DEBUG) {
                     Log.d(TAG, "loadTasksInBackground end " + (System.currentTimeMillis() - start));
                 }
-                mState = State.IDLE;
-                Process.setThreadPriority(origPri);
-                return null;
+                // a cancel already reset the state and maybe started the next load
+                if (!isCancelled()) {
+                    mState = State.IDLE;
+                }
             }
-        };
-        mTaskLoader.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+        });
     }
 
-    private ThumbnailData getThumbnail(int taskId) {
+    /**
+     * @param lowRes reduced resolution snapshot is good enough
+     */
+    private ThumbnailData getThumbnail(TaskDescription td, boolean lowRes) {
+        final int taskId = td.getPersistentTaskId();
+        ThumbnailData data = mThumbnailCache.getIfCurrent(taskId, td.getLastActiveTime(), lowRes);
+        if (data != null) {
+            return data;
+        }
         try {
-            TaskSnapshot snapshot = ActivityTaskManager.getService().getTaskSnapshot(taskId, true, true);
+            final long start = SystemClock.elapsedRealtime();
+            TaskSnapshot snapshot = ActivityTaskManager.getService().getTaskSnapshot(taskId, lowRes, true);
+            mThumbnailCache.recordFetch(lowRes, SystemClock.elapsedRealtime() - start);
             if (snapshot != null) {
                 if (DEBUG) {
-                    Log.d(TAG, "getThumbnail " + taskId);
+                    Log.d(TAG, "getThumbnail " + taskId + " lowRes = " + lowRes);
                 }
-                ThumbnailData data = new ThumbnailData(snapshot);
-                return data;
+                return mThumbnailCache.put(taskId, td.getLastActiveTime(),
+                        taskId == mFrontTaskId, new ThumbnailData(snapshot));
             }
         } catch (RemoteException e) {
             Log.w(TAG, "Failed to retrieve snapshot", e);
@@ -415,13 +716,7 @@ public class RecentTasksLoader {
     }
 
     private Drawable getFullResIcon(ResolveInfo info, boolean withIconPack, String label) {
-        Resources resources;
-        try {
-            resources = mPackageManager
-                    .getResourcesForApplication(info.activityInfo.applicationInfo);
-        } catch (PackageManager.NameNotFoundException e) {
-            resources = null;
-        }
+        Resources resources = mAppInfoCache.getResources(info.activityInfo.applicationInfo);
         if (resources != null) {
             int iconId = 0;
             if (withIconPack) {
@@ -430,15 +725,12 @@ public class RecentTasksLoader {
                     return IconPackHelper.getInstance(mContext).getIconPackResources().getDrawable(iconId);
                 }
             }
-            iconId = info.activityInfo.getIconResource();
-            if (iconId != 0) {
+            Drawable d = mAppInfoCache.getIcon(info.activityInfo);
+            if (d != null) {
                 try {
-                    Drawable d = resources.getDrawable(iconId, null);
                     if (withIconPack) {
-                        d = BitmapUtils.compose(resources,
-                                d, mContext, getIconPackHelper().getIconBackFor(label),
-                                getIconPackHelper().getIconMask(), getIconPackHelper().getIconUpon(),
-                                getIconPackHelper().getIconScale(), mConfiguration.mIconSize, mConfiguration.mDensity);
+                        d = getIconPackHelper().getCompositor(mConfiguration.mIconSize, mConfiguration.mDensity)
+                                .compose(resources, d, label);
                     }
                     return d;
                 } catch (Exception e) {
@@ -449,41 +741,153 @@ public class RecentTasksLoader {
     }
 
     public void loadThumbnail(final TaskDescription td) {
+        // a bound view is visible so this goes before any prefetching
+        loadThumbnail(td, TaskLoaderScheduler.PRIORITY_VISIBLE);
+    }
+
+    private void loadThumbnail(final TaskDescription td, int priority) {
         if (!mHasThumbPermissions) {
             return;
         }
         if (td.isThumbLoading()) {
             return;
         }
-        mThumbnailLoader = new AsyncTask<Void, TaskDescription, Void>() {
+        td.setThumbLoading(true);
+        mScheduler.submit("thumb:" + td.persistentTaskId, priority,
+                new TaskLoaderScheduler.Job() {
             @Override
-            protected void onProgressUpdate(TaskDescription... values) {
+            public void run() {
+                if (DEBUG) {
+                    Log.d(TAG, "late load thumb " + td + " " + td.persistentTaskId);
+                }
+                ThumbnailData b = getThumbnail(td, true);
+                td.setThumbLoading(false);
+                if (b != null) {
+                    td.setNeedsUpdate(false);
+                    td.setThumb(b, true);
+                    if (isHighResTask(td)) {
+                        upgradeThumbnail(td);
+                    }
+                }
             }
+
             @Override
-            protected Void doInBackground(Void... params) {
-                final int origPri = Process.getThreadPriority(Process.myTid());
-                Process.setThreadPriority(Process.THREAD_PRIORITY_FOREGROUND);
+            protected void onCancelled() {
+                td.setThumbLoading(false);
+            }
+        });
+    }
+
+    private boolean isHighResTask(TaskDescription td) {
+        final int position = mLoadedTasks.indexOf(td);
+        return position >= 0 && position < HIGH_RES_TASKS;
+    }
 
+    // low res thumbs of the most recent tasks are replaced once everything else is done
+    private void upgradeThumbnails() {
+        int position = 0;
+        for (TaskDescription td : mLoadedTasks) {
+            if (position++ == HIGH_RES_TASKS) {
+                break;
+            }
+            upgradeThumbnail(td);
+        }
+    }
+
+    private void upgradeThumbnail(final TaskDescription td) {
+        final ThumbnailData current = td.getThumb();
+        if (!mHasThumbPermissions || current == null || !mThumbnailCache.needsHighRes(current)) {
+            return;
+        }
+        mScheduler.submit("thumb_high:" + td.persistentTaskId, TaskLoaderScheduler.PRIORITY_BACKGROUND,
+                new TaskLoaderScheduler.Job() {
+            @Override
+            public void run() {
+                if (td.getThumb() != current) {
+                    // replaced meanwhile
+                    return;
+                }
                 if (DEBUG) {
-                    Log.d(TAG, "late load thumb " + td + " " + td.persistentTaskId);
+                    Log.d(TAG, "upgrade thumb " + td + " " + td.persistentTaskId);
                 }
-                td.setThumbLoading(true);
-                ThumbnailData b = getThumbnail(td.persistentTaskId);
-                if (b != null) {
-                    td.setThumbLoading(false);
+                ThumbnailData b = getThumbnail(td, false);
+                if (b != null && !b.reducedResolution && td.getThumb() == current) {
                     td.setThumb(b, true);
                 }
+            }
+        });
+    }
+
+    // thumbs of the first page
+    private void prefetchThumbnails() {
+        int position = 0;
+        for (TaskDescription td : mLoadedTasks) {
+            if (position++ == TASK_INIT_LOAD) {
+                break;
+            }
+            if (td.getThumb() == null || td.isNeedsUpdate()) {
+                loadThumbnail(td);
+            }
+        }
+    }
+
+    /**
+     * Package of the task that was in front when the list was loaded
+     */
+    public String getFrontPackageName() {
+        synchronized (mTaskTable) {
+            TaskDescription td = mTaskTable.get(mFrontTaskId);
+            return td != null ? td.getPackageName() : null;
+        }
+    }
 
-                Process.setThreadPriority(origPri);
-                return null;
+    // warm what is likely to be switched to next from the front task
+    private void prefetchPredicted() {
+        final List<String> predicted = NextAppPredictor.getInstance(mContext).predict(
+                getFrontPackageName(), System.currentTimeMillis(), NextAppPredictor.PREDICTIONS);
+        if (predicted.size() == 0) {
+            return;
+        }
+        if (DEBUG) {
+            Log.d(TAG, "prefetch predicted " + predicted);
+        }
+        int prefetched = 0;
+        for (TaskDescription td : mLoadedTasks) {
+            if (td.getPersistentTaskId() == mFrontTaskId
+                    || !predicted.contains(td.getPackageName())) {
+                continue;
+            }
+            if (td.getThumb() == null || td.isNeedsUpdate()) {
+                loadThumbnail(td, TaskLoaderScheduler.PRIORITY_PREFETCH);
+                prefetched++;
+            }
+        }
+        NextAppPredictor.getInstance(mContext).notePrefetch(prefetched);
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                // favorites and app drawer
+                for (String packageName : predicted) {
+                    for (org.omnirom.omniswitch.PackageManager.PackageItem item :
+                            org.omnirom.omniswitch.PackageManager.getInstance(mContext)
+                            .getSnapshot().getByPackageName(packageName)) {
+                        IconPrewarmer.getInstance(mContext).prefetch(item);
+                    }
+                }
             }
-        };
-        mThumbnailLoader.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+        });
+    }
+
+    private void loadThumbnails(List<TaskDescription> tasks) {
+        for (TaskDescription td : tasks) {
+            loadThumbnail(td);
+        }
+        tasks.clear();
     }
 
     public void loadTaskInfo(final TaskDescription td) {
         synchronized(td) {
-            String label = td.resolveInfo.loadLabel(mPackageManager).toString();
+            String label = mAppInfoCache.getLabel(td.resolveInfo);
             final boolean withIconPack = IconPackHelper.getInstance(mContext).isIconPackLoaded();
             Drawable icon = getFullResIcon(td.resolveInfo, withIconPack, label);
             if (icon == null) {
@@ -495,35 +899,38 @@ public class RecentTasksLoader {
     }
 
     private void loadMissingTaskInfo() {
-        mTaskInfoLoader = new AsyncTask<Void, Void, Void>() {
-            @Override
-            protected void onProgressUpdate(Void... values) {
+        int position = 0;
+        for (final TaskDescription td : mLoadedTasks) {
+            final int priority = getTaskPriority(position++);
+            if (td.getIcon() != null && td.getLabel() != null) {
+                continue;
             }
-            @Override
-            protected Void doInBackground(Void... params) {
-                long start = System.currentTimeMillis();
-                final int origPri = Process.getThreadPriority(Process.myTid());
-                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
-
-                for (TaskDescription td : mLoadedTasks) {
-                    if (isCancelled()) {
-                        break;
-                    }
+            mScheduler.submit("info:" + td.persistentTaskId, priority, new TaskLoaderScheduler.Job() {
+                @Override
+                public void run() {
                     synchronized(td) {
+                        if (td.getIcon() != null && td.getLabel() != null) {
+                            return;
+                        }
                         if (DEBUG) {
                             Log.d(TAG, "late load task info " + td + " " + td.persistentTaskId);
                         }
                         loadTaskInfo(td);
                     }
                 }
-                if (DEBUG) {
-                    Log.d(TAG, "loadMissingTaskInfo end " + (System.currentTimeMillis() - start));
-                }
-                Process.setThreadPriority(origPri);
-                return null;
-            }
-        };
-        mTaskInfoLoader.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+            });
+        }
+    }
+
+    // visible tasks first then the next page and the rest last
+    private int getTaskPriority(int position) {
+        if (position < TASK_INIT_LOAD) {
+            return TaskLoaderScheduler.PRIORITY_VISIBLE;
+        }
+        if (position < 2 * TASK_INIT_LOAD) {
+            return TaskLoaderScheduler.PRIORITY_PREFETCH;
+        }
+        return TaskLoaderScheduler.PRIORITY_BACKGROUND;
     }
 
     private boolean hasSystemPermission(Context context) {
@@ -65,6 +65,7 @@ public class SwitchManager {
     private final ActivityManager mAm;
     private final IActivityManager mIAm;
     private IPowerManager mPowerService;
+    private TaskRemover mTaskRemover;
 
     public SwitchManager(Context context, int layoutStyle) {
         mContext = context;
@@ -73,6 +74,7 @@ public class SwitchManager {
         mAm = (ActivityManager) mContext.getSystemService(Context.ACTIVITY_SERVICE);
         mPowerService = IPowerManager.Stub.asInterface(ServiceManager.getService("power"));
         mIAm = ActivityManager.getService();
+        mTaskRemover = new TaskRemover();
         init();
     }
 
@@ -103,9 +105,12 @@ public class SwitchManager {
             mLayout.setHandleRecentsUpdate(true);
 
             clearTasks();
-            RecentTasksLoader.getInstance(mContext).cancelLoadingTasks();
-            RecentTasksLoader.getInstance(mContext).setSwitchManager(this);
-            RecentTasksLoader.getInstance(mContext).loadTasksInBackground(0, true, true);
+            RecentTasksLoader loader = RecentTasksLoader.getInstance(mContext);
+            if (!loader.isTaskListCurrent()) {
+                loader.cancelLoadingTasks();
+            }
+            loader.setSwitchManager(this);
+            loader.loadTasksInBackground(0, true, true);
 
             // show immediately
             mLayout.show();
@@ -185,11 +190,19 @@ public class SwitchManager {
         return mGestureView;
     }
 
-    public void update(List<TaskDescription> taskList, List<TaskDescription> taskListOriginal) {
+    public void update(List<TaskDescription> taskList, List<TaskDescription> taskListOriginal,
+            TaskChangeSet changes) {
+        if (mLoadedTasks.size() == 0) {
+            // list has been cleared before loading - nothing to diff against
+            changes = TaskChangeSet.fullUpdate();
+        }
+        if (DEBUG){
+            Log.d(TAG, "update " + changes);
+        }
         mLoadedTasksOriginal = taskListOriginal;
         mLoadedTasks.clear();
         mLoadedTasks.addAll(taskList);
-        mLayout.update();
+        mLayout.update(changes);
         mGestureView.update();
     }
 
@@ -261,18 +274,16 @@ public class SwitchManager {
             return;
         }
 
+        List<TaskDescription> tasks = new ArrayList<TaskDescription>();
         Iterator<TaskDescription> nextTask = mLoadedTasksOriginal.iterator();
         while (nextTask.hasNext()) {
             TaskDescription ad = nextTask.next();
             if (ad.isLocked()) {
                 continue;
             }
-            removeTask(ad.getPersistentTaskId());
-            if (DEBUG){
-                Log.d(TAG, "kill " + ad.getLabel());
-            }
-            ad.setKilled();
+            tasks.add(ad);
         }
+        removeTasks(tasks, close);
         goHome(close);
     }
 
@@ -287,6 +298,7 @@ public class SwitchManager {
             }
             return;
         }
+        List<TaskDescription> tasks = new ArrayList<TaskDescription>();
         Iterator<TaskDescription> nextTask = mLoadedTasksOriginal.iterator();
         // skip active task
         nextTask.next();
@@ -295,12 +307,9 @@ public class SwitchManager {
             if (ad.isLocked()) {
                 continue;
             }
-            removeTask(ad.getPersistentTaskId());
-            if (DEBUG){
-                Log.d(TAG, "kill " + ad.getLabel());
-            }
-            ad.setKilled();
+            tasks.add(ad);
         }
+        removeTasks(tasks, close);
         if(close){
             hide(true);
         }
@@ -324,11 +333,9 @@ public class SwitchManager {
                 // remove from locked
                 toggleLockedApp(ad, ad.isLocked(), false);
             }
-            removeTask(ad.getPersistentTaskId());
-            if (DEBUG){
-                Log.d(TAG, "kill " + ad.getLabel());
-            }
-            ad.setKilled();
+            List<TaskDescription> tasks = new ArrayList<TaskDescription>();
+            tasks.add(ad);
+            removeTasks(tasks, close);
         }
         if(close){
             hide(true);
@@ -348,6 +355,11 @@ public class SwitchManager {
     }
 
     public void updatePrefs(SharedPreferences prefs, String key) {
+        if (key == null || Utils.isPrefKeyForForceUpdate(key)
+                || key.equals(LocaleChangeReceiver.LOCALE_CHANGED_TAG)) {
+            // cached labels and icons of tasks are outdated
+            RecentTasksLoader.getInstance(mContext).invalidateTaskTable();
+        }
         if (key != null && key.equals(SettingsActivity.PREF_LAYOUT_STYLE)) {
             String layoutStyle = prefs.getString(SettingsActivity.PREF_LAYOUT_STYLE, "1");
             mLayoutStyle = Integer.valueOf(layoutStyle);
@@ -456,6 +468,7 @@ public class SwitchManager {
     }
 
     public void shutdownService() {
+        mTaskRemover.shutdown();
         mLayout.shutdownService();
     }
 
@@ -463,8 +476,8 @@ public class SwitchManager {
         mLayout.slideLayout(distanceX);
     }
 
-    public void finishSlideLayout() {
-        mLayout.finishSlideLayout();
+    public boolean finishSlideLayout() {
+        return mLayout.finishSlideLayout();
     }
 
     public void openSlideLayout(boolean fromFling) {
@@ -610,6 +623,46 @@ public class SwitchManager {
         }
     }
 
+    /**
+     * Removal runs in the background - the overlay may close right away.
+     * If it stays open the tiles go away as each removal is confirmed.
+     */
+    private void removeTasks(List<TaskDescription> tasks, final boolean close) {
+        if (tasks.size() == 0) {
+            return;
+        }
+        if (DEBUG){
+            Log.d(TAG, "kill " + tasks);
+        }
+        mTaskRemover.removeTasks(tasks, new TaskRemover.Callback() {
+            @Override
+            public void onTaskRemoved(final TaskDescription ad) {
+                // only confirmed removals - refused tasks stay usable
+                ad.setKilled();
+                if (close || !isShowing()) {
+                    return;
+                }
+                mLayout.animateTaskRemoved(ad, new Runnable() {
+                    @Override
+                    public void run() {
+                        removeTaskFromList(ad);
+                    }
+                });
+            }
+
+            @Override
+            public void onDone(int removed, List<TaskDescription> failed) {
+                if (failed.size() == 0) {
+                    return;
+                }
+                Log.w(TAG, "failed to remove " + failed.size() + " of " + (removed + failed.size())
+                        + " tasks " + failed);
+                Toast.makeText(mContext, mContext.getResources().getString(
+                        R.string.kill_tasks_failed, failed.size()), Toast.LENGTH_SHORT).show();
+            }
+        });
+    }
+
     private void removeTask(int taskid) {
         try {
             mIAm.removeTask(taskid);
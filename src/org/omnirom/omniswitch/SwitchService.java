@@ -19,7 +19,9 @@ package org.omnirom.omniswitch;
 
 import org.omnirom.omniswitch.launcher.Launcher;
 import org.omnirom.omniswitch.ui.BitmapCache;
+import org.omnirom.omniswitch.ui.BitmapPool;
 import org.omnirom.omniswitch.ui.BitmapUtils;
+import org.omnirom.omniswitch.ui.IconCompositor;
 import org.omnirom.omniswitch.ui.IconPackHelper;
 
 import android.app.Notification;
@@ -32,6 +34,7 @@ import android.content.Intent;
 import android.content.IntentFilter;
 import android.content.SharedPreferences;
 import android.content.res.Configuration;
+import android.graphics.drawable.Drawable;
 import android.os.Build;
 import android.os.Binder;
 import android.os.IBinder;
@@ -40,6 +43,8 @@ import android.preference.PreferenceManager;
 import android.provider.Settings;
 import android.util.Log;
 
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
 import java.util.Set;
 import java.util.HashSet;
 
@@ -49,6 +54,8 @@ public class SwitchService extends Service {
 
     private static final int START_SERVICE_ERROR_ID = 0;
     private static final int START_PERMISSION_SETTINGS_ID = 1;
+    private static final String DUMP_BENCHMARK = "benchmark";
+    private static final int BENCHMARK_ITERATIONS = 200;
     public static final String DPI_CHANGE = "dpi_change";
 
     private RecentsReceiver mReceiver;
@@ -108,6 +115,8 @@ public class SwitchService extends Service {
 
             registerReceiver(mReceiver, filter);
             PackageManager.getInstance(this).updatePackageList();
+            RecentTasksLoader.getInstance(this).startTaskStackMonitor(
+                    new TaskStackMonitor.SystemEventSource());
 
             updatePrefs(mPrefs, null);
 
@@ -159,10 +168,22 @@ public class SwitchService extends Service {
         }
         mIsRunning = false;
         BitmapCache.getInstance(this).clear();
+        ThumbnailCache.getInstance(this).clear();
+        AppInfoCache.getInstance(this).clear();
 
         mCommitSuicide = false;
     }
 
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        if(DEBUG){
+            Log.d(TAG, "onTrimMemory " + level);
+        }
+        ThumbnailCache.getInstance(this).onTrimMemory(level);
+        AppInfoCache.getInstance(this).onTrimMemory(level);
+    }
+
     public class LocalBinder extends Binder {
         public SwitchService getService() {
             return SwitchService.this;
@@ -175,6 +196,38 @@ public class SwitchService extends Service {
         return mBinder;
     }
 
+    @Override
+    protected void dump(FileDescriptor fd, PrintWriter pw, String[] args) {
+        if (args != null && args.length != 0 && args[0].equals(DUMP_BENCHMARK)) {
+            dumpIconBenchmark(pw);
+            return;
+        }
+        NextAppPredictor.getInstance(this).dump(pw);
+        ThumbnailCache.getInstance(this).dump(pw);
+        IconPackHelper.getInstance(this).dumpCompositors(pw);
+        BitmapPool.getInstance().dump(pw);
+        if (mManager != null) {
+            mManager.getSwitchGestureView().dump(pw);
+        }
+    }
+
+    // dumpsys activity service org.omnirom.omniswitch/.SwitchService benchmark
+    private void dumpIconBenchmark(PrintWriter pw) {
+        final IconPackHelper helper = IconPackHelper.getInstance(this);
+        if (!helper.isIconPackLoaded()) {
+            pw.println("IconCompositor benchmark: no icon pack loaded");
+            return;
+        }
+        final Drawable icon = getApplicationInfo().loadIcon(getPackageManager());
+        final long[] result = IconCompositor.benchmark(getResources(), icon,
+                helper.getIconBackList(), helper.getIconMask(), helper.getIconUpon(),
+                helper.getIconScale(), mConfiguration.mIconSize, mConfiguration.mDensity,
+                BENCHMARK_ITERATIONS);
+        pw.println("IconCompositor benchmark: " + helper.getLoadedIconPackName()
+                + " size = " + mConfiguration.mIconSize + "dp iterations = " + BENCHMARK_ITERATIONS);
+        pw.println("  legacy = " + result[0] + "us compositor = " + result[1] + "us per icon");
+    }
+
     public static class RecentsReceiver extends BroadcastReceiver {
         public static final String ACTION_HANDLE_HIDE = "org.omnirom.omniswitch.ACTION_HANDLE_HIDE";
         public static final String ACTION_HANDLE_SHOW = "org.omnirom.omniswitch.ACTION_HANDLE_SHOW";
@@ -247,9 +300,12 @@ public class SwitchService extends Service {
                     }
                     if (!mManager.isShowing()) {
                         mManager.beforePreloadTasks();
-                        RecentTasksLoader.getInstance(context).cancelLoadingTasks();
-                        RecentTasksLoader.getInstance(context).setSwitchManager(mManager);
-                        RecentTasksLoader.getInstance(context).preloadTasks();
+                        RecentTasksLoader loader = RecentTasksLoader.getInstance(context);
+                        if (!loader.isTaskListCurrent()) {
+                            loader.cancelLoadingTasks();
+                        }
+                        loader.setSwitchManager(mManager);
+                        loader.preloadTasks();
                         mPreloadDone = true;
                     }
                 }
@@ -307,6 +363,8 @@ public class SwitchService extends Service {
             if (mIsRunning) {
                 boolean updateDone = false;
                 if (mConfiguration.onConfigurationChanged(this)) {
+                    // icons of another density are needed
+                    AppInfoCache.getInstance(this).clear();
                     updatePrefs(mPrefs, DPI_CHANGE);
                     updateDone = true;
                 }
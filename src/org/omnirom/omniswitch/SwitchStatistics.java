@@ -21,37 +21,69 @@ import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
 import android.util.Log;
-import android.util.Xml;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
-import java.util.LinkedHashMap;
+import java.io.RandomAccessFile;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.TimeZone;
 import java.util.HashMap;
-import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import org.xmlpull.v1.XmlPullParser;
 import org.xmlpull.v1.XmlPullParserException;
 import org.xmlpull.v1.XmlPullParserFactory;
-import org.xmlpull.v1.XmlSerializer;
 
+/**
+ * Launch counts and frecency ranking per package. Every launch is appended
+ * to a small binary log that is folded into a snapshot file from time to
+ * time. All file access happens on a single background thread.
+ *
+ * snapshot: MAGIC, VERSION, generation, entry count, (package, count, last launch)*,
+ *           ranker state (see FrecencyRanker.write)
+ * log: (package, timestamp)* - only the log of the snapshot generation is valid
+ */
 public class SwitchStatistics {
     private static final String TAG = "SwitchStatistics";
+    private static final boolean DEBUG = false;
     private static String sRefFilename = "statistics.xml";
-    private static final Integer SAVE_THRESHOLD = 10;
+    private static final String SNAPSHOT_FILENAME = "statistics.snap";
+    private static final String LOG_FILENAME_PREFIX = "statistics-";
+    private static final String LOG_FILENAME_SUFFIX = ".log";
+    private static final int MAGIC = 0x4f535354; // OSST
+    private static final int VERSION = 2;
+    // counts only - ranking is seeded from them
+    private static final int VERSION_COUNTS = 1;
+    // log records before they are folded into the snapshot
+    private static final int COMPACT_THRESHOLD = 100;
 
     private static SwitchStatistics mInstance;
     private Context mContext;
-    private HashMap<String, Integer> mStartTrace = new HashMap<String, Integer>();
+    // readers use it outside of mWriter - only replaced by mWriter
+    private volatile FrecencyRanker mRanker = new FrecencyRanker(FrecencyRanker.Params.DEFAULT);
     private SwitchConfiguration mConfiguration;
-    private int mLaunchCount;
+    private final ExecutorService mWriter = Executors.newSingleThreadExecutor();
+    // state on disk - only touched by mWriter
+    private final Map<String, LaunchStat> mStored = new HashMap<String, LaunchStat>();
+    private int mGeneration;
+    private int mLogRecords;
+    // mStored and mGeneration are read from disk
+    private boolean mLoaded;
+
+    private static class LaunchStat {
+        int mCount;
+        long mLastLaunch;
+    }
 
     public static SwitchStatistics getInstance(Context context) {
         if (mInstance == null) {
@@ -67,127 +99,326 @@ public class SwitchStatistics {
 
     public void traceStartIntent(Intent intent) {
         if (mConfiguration.mLaunchStatsEnabled) {
-            mLaunchCount++;
             ComponentName name = intent.getComponent();
-            String pPkgName = name.getPackageName();
-            Integer count = mStartTrace.get(pPkgName);
-            if (count == null) {
-                mStartTrace.put(pPkgName, 1);
-            } else {
-                mStartTrace.put(pPkgName, count + 1);
-            }
-            if (mLaunchCount == SAVE_THRESHOLD) {
-                mLaunchCount = 0;
-                saveStatistics();
-            }
+            final String pPkgName = name.getPackageName();
+            final long now = System.currentTimeMillis();
+            NextAppPredictor.getInstance(mContext).recordLaunch(
+                    RecentTasksLoader.getInstance(mContext).getFrontPackageName(), pPkgName, now);
+            mWriter.execute(new Runnable() {
+                @Override
+                public void run() {
+                    appendLaunch(pPkgName, now);
+                }
+            });
         }
     }
 
     public List<String> getTopmostLaunches(int count) {
-        Comparator<Entry<String, Integer>> valueComparator = new Comparator<Entry<String,Integer>>() {
+        return mRanker.getTop(count, System.currentTimeMillis());
+    }
+
+    /**
+     * Change the decay params - existing scores are approximated from the counts
+     */
+    public void setRankingParams(final FrecencyRanker.Params params) {
+        mWriter.execute(new Runnable() {
             @Override
-            public int compare(Entry<String, Integer> e1, Entry<String, Integer> e2) {
-                Integer v1 = e1.getValue();
-                Integer v2 = e2.getValue();
-                return -v1.compareTo(v2);
-            }
-        };
-
-        Set<Entry<String, Integer>> entries = mStartTrace.entrySet();
-        List<Entry<String, Integer>> listOfEntries = new ArrayList<Entry<String, Integer>>(entries);
-        Collections.sort(listOfEntries, valueComparator);
-        LinkedHashMap<String, Integer> sortedByValue = new LinkedHashMap<String, Integer>(listOfEntries.size());
-        for(Entry<String, Integer> entry : listOfEntries){
-            sortedByValue.put(entry.getKey(), entry.getValue());
-        }
-
-        int i = 0;
-        List<String> topLaunches = new ArrayList<String>();
-        for (String pkgName : sortedByValue.keySet()) {
-            topLaunches.add(pkgName);
-            i++;
-            if (i == count) {
-                break;
+            public void run() {
+                // the stored params are only known after loading
+                ensureLoaded();
+                if (params.equals(mRanker.getParams())) {
+                    return;
+                }
+                mRanker = seedRanker(params);
+                compact();
             }
-        }
-        return topLaunches;
+        });
     }
 
     public void clear() {
-        mStartTrace.clear();
-        if (getSaveFile().exists()) {
-            getSaveFile().delete();
-        }
+        mRanker.clear();
+        NextAppPredictor.getInstance(mContext).clear();
+        mWriter.execute(new Runnable() {
+            @Override
+            public void run() {
+                mStored.clear();
+                mLogRecords = 0;
+                mLoaded = true;
+                mRanker.clear();
+                getSnapshotFile().delete();
+                getXmlFile().delete();
+                deleteLogs(-1);
+            }
+        });
     }
 
-    private File getSaveFile() {
+    private File getXmlFile() {
         return new File(mContext.getFilesDir(), sRefFilename);
     }
 
+    private File getSnapshotFile() {
+        return new File(mContext.getFilesDir(), SNAPSHOT_FILENAME);
+    }
+
+    private File getLogFile(int generation) {
+        return new File(mContext.getFilesDir(), LOG_FILENAME_PREFIX + generation + LOG_FILENAME_SUFFIX);
+    }
+
+    /**
+     * Fold the launch log into the snapshot e.g. before the service goes away
+     */
     public void saveStatistics() {
         if (!mConfiguration.mLaunchStatsEnabled) {
             return;
         }
+        NextAppPredictor.getInstance(mContext).save();
+        mWriter.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (mLogRecords != 0) {
+                    compact();
+                }
+            }
+        });
+    }
 
-        if (getSaveFile().exists()) {
-            getSaveFile().delete();
+    public void loadStatistics() {
+        if (!mConfiguration.mLaunchStatsEnabled) {
+            return;
         }
+        NextAppPredictor.getInstance(mContext).load();
+        mWriter.execute(new Runnable() {
+            @Override
+            public void run() {
+                readStatistics();
+            }
+        });
+    }
 
-        //traceStats();
+    // launches can come in before loadStatistics was called
+    private void ensureLoaded() {
+        if (!mLoaded) {
+            readStatistics();
+        }
+    }
 
-        try {
-            FileOutputStream fos = new FileOutputStream(getSaveFile());
-            XmlSerializer xmlSerializer = Xml.newSerializer();
-            xmlSerializer.setOutput(fos, "UTF-8");
-            xmlSerializer.setFeature("http://xmlpull.org/v1/doc/features.html#indent-output", true);
-            xmlSerializer.startDocument(null, Boolean.valueOf(true));
+    private void appendLaunch(String packageName, long timestamp) {
+        ensureLoaded();
+        addStoredLaunch(packageName, timestamp);
+        mRanker.recordLaunch(packageName, timestamp);
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(getLogFile(mGeneration), true)))) {
+            out.writeUTF(packageName);
+            out.writeLong(timestamp);
+        } catch (IOException e) {
+            Log.e(TAG, "appendLaunch", e);
+            return;
+        }
+        mLogRecords++;
+        if (mLogRecords >= COMPACT_THRESHOLD) {
+            compact();
+        }
+    }
 
-            xmlSerializer.startTag(null, "packages");
-            for (String pkgName : mStartTrace.keySet()) {
-                xmlSerializer.startTag(null, "package");
-                xmlSerializer.attribute(null, "name", pkgName);
-                xmlSerializer.attribute(null, "count", String.valueOf(mStartTrace.get(pkgName)));
-                xmlSerializer.endTag(null, "package");
-            }
-            xmlSerializer.endTag(null, "packages");
+    private void addStoredLaunch(String packageName, long timestamp) {
+        LaunchStat stat = mStored.get(packageName);
+        if (stat == null) {
+            stat = new LaunchStat();
+            mStored.put(packageName, stat);
+        }
+        stat.mCount++;
+        stat.mLastLaunch = Math.max(stat.mLastLaunch, timestamp);
+    }
 
-            xmlSerializer.endDocument();
-            xmlSerializer.flush();
-            fos.close();
-        } catch (Exception e) {
-            Log.e(TAG, "saveStatistics", e);
+    // approximate ranking for counts without a decayed history
+    private FrecencyRanker seedRanker(FrecencyRanker.Params params) {
+        FrecencyRanker ranker = new FrecencyRanker(params);
+        // imported counts have no launch time
+        final long now = System.currentTimeMillis();
+        for (Entry<String, LaunchStat> entry : mStored.entrySet()) {
+            final LaunchStat stat = entry.getValue();
+            ranker.seed(entry.getKey(), stat.mCount, stat.mLastLaunch != 0 ? stat.mLastLaunch : now);
         }
+        return ranker;
     }
 
-    public void loadStatistics() {
-        if (!mConfiguration.mLaunchStatsEnabled) {
+    // write a new snapshot that starts a new log generation
+    private void compact() {
+        final int generation = mGeneration + 1;
+        File tmp = new File(mContext.getFilesDir(), SNAPSHOT_FILENAME + ".tmp");
+        try (FileOutputStream fos = new FileOutputStream(tmp);
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(generation);
+            out.writeInt(mStored.size());
+            for (Entry<String, LaunchStat> entry : mStored.entrySet()) {
+                out.writeUTF(entry.getKey());
+                out.writeInt(entry.getValue().mCount);
+                out.writeLong(entry.getValue().mLastLaunch);
+            }
+            mRanker.write(out);
+            out.flush();
+            fos.getFD().sync();
+        } catch (IOException e) {
+            Log.e(TAG, "compact", e);
+            tmp.delete();
             return;
         }
-        if (!getSaveFile().exists()) {
+        // the rename is the commit point - the old log is ignored from now on
+        if (!tmp.renameTo(getSnapshotFile())) {
+            Log.e(TAG, "compact: rename failed");
+            tmp.delete();
             return;
         }
-        mStartTrace.clear();
+        mGeneration = generation;
+        mLogRecords = 0;
+        deleteLogs(generation);
+        if (DEBUG) Log.d(TAG, "compact generation = " + generation + " entries = " + mStored.size());
+    }
+
+    // all logs except the one of keepGeneration
+    private void deleteLogs(int keepGeneration) {
+        File[] files = mContext.getFilesDir().listFiles();
+        if (files == null) {
+            return;
+        }
+        final String keep = getLogFile(keepGeneration).getName();
+        for (File file : files) {
+            final String name = file.getName();
+            if (name.startsWith(LOG_FILENAME_PREFIX) && name.endsWith(LOG_FILENAME_SUFFIX)
+                    && !name.equals(keep)) {
+                file.delete();
+            }
+        }
+    }
 
-        try {
+    private void readStatistics() {
+        mStored.clear();
+        mGeneration = 0;
+        mLogRecords = 0;
+        mLoaded = true;
+        if (!getSnapshotFile().exists() && getXmlFile().exists()) {
+            importXml();
+            return;
+        }
+        FrecencyRanker ranker = null;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(getSnapshotFile())))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("unknown snapshot format");
+            }
+            final int version = in.readInt();
+            if (version != VERSION && version != VERSION_COUNTS) {
+                throw new IOException("unknown snapshot version " + version);
+            }
+            mGeneration = in.readInt();
+            final int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                LaunchStat stat = new LaunchStat();
+                final String packageName = in.readUTF();
+                stat.mCount = in.readInt();
+                stat.mLastLaunch = in.readLong();
+                mStored.put(packageName, stat);
+            }
+            if (version == VERSION) {
+                // with the params it was written with - set by setRankingParams
+                ranker = FrecencyRanker.read(in, TimeZone.getDefault());
+            }
+        } catch (IOException e) {
+            if (getSnapshotFile().exists()) {
+                Log.e(TAG, "readStatistics", e);
+            }
+        }
+        if (ranker == null) {
+            final FrecencyRanker.Params params = mRanker.getParams();
+            if (DEBUG) Log.d(TAG, "readStatistics: seed ranking " + params);
+            ranker = seedRanker(params);
+        }
+        final File log = getLogFile(mGeneration);
+        boolean brokenLog = false;
+        if (log.exists()) {
+            // end of the last complete record
+            long validLength = 0;
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                    new FileInputStream(log)))) {
+                while (true) {
+                    final String packageName = in.readUTF();
+                    final long timestamp = in.readLong();
+                    addStoredLaunch(packageName, timestamp);
+                    ranker.recordLaunch(packageName, timestamp);
+                    mLogRecords++;
+                    validLength += getRecordLength(packageName);
+                }
+            } catch (EOFException e) {
+                // end of log or a record cut by a crash
+            } catch (IOException e) {
+                Log.e(TAG, "readStatistics", e);
+            }
+            if (validLength != log.length()) {
+                // else new records are appended behind the broken one
+                Log.w(TAG, "readStatistics: truncate log at " + validLength + " of " + log.length());
+                try (RandomAccessFile raf = new RandomAccessFile(log, "rw")) {
+                    raf.setLength(validLength);
+                } catch (IOException e) {
+                    Log.e(TAG, "readStatistics", e);
+                    brokenLog = true;
+                }
+            }
+        }
+        mRanker = ranker;
+        if (brokenLog) {
+            // the next generation starts with an empty log
+            compact();
+        }
+        deleteLogs(mGeneration);
+        if (DEBUG) Log.d(TAG, "readStatistics generation = " + mGeneration + " entries = " + mStored.size()
+                + " log = " + mLogRecords);
+    }
+
+    // bytes of a log record as written by appendLaunch
+    private static long getRecordLength(String packageName) {
+        // modified UTF-8 of writeUTF
+        long length = 2 + 8;
+        for (int i = 0; i < packageName.length(); i++) {
+            final char c = packageName.charAt(i);
+            if (c >= 0x0001 && c <= 0x007f) {
+                length += 1;
+            } else if (c <= 0x07ff) {
+                length += 2;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    // one time migration of the old xml file
+    private void importXml() {
+        Map<String, Integer> counts = new HashMap<String, Integer>();
+        try (FileInputStream fIs = new FileInputStream(getXmlFile())) {
             XmlPullParserFactory pullParserFactory = XmlPullParserFactory.newInstance();
             XmlPullParser parser = pullParserFactory.newPullParser();
-
-            FileInputStream fIs = new FileInputStream(getSaveFile());
             parser.setFeature(XmlPullParser.FEATURE_PROCESS_NAMESPACES, false);
             parser.setInput(fIs, null);
             parser.nextTag();
-            parseXML(parser);
+            parseXML(parser, counts);
         } catch (Exception e) {
-            Log.e(TAG, "loadStatistics", e);
+            Log.e(TAG, "importXml", e);
+        }
+        for (Entry<String, Integer> entry : counts.entrySet()) {
+            LaunchStat stat = new LaunchStat();
+            stat.mCount = entry.getValue();
+            mStored.put(entry.getKey(), stat);
+        }
+        mRanker = seedRanker(mRanker.getParams());
+        compact();
+        if (getSnapshotFile().exists()) {
+            getXmlFile().delete();
         }
-        //traceStats();
-    }
-
-    private void addSavedTraceEntry(String packageName, Integer count) {
-        mStartTrace.put(packageName, count);
     }
 
-    private void parseXML(XmlPullParser parser) throws XmlPullParserException,
+    private void parseXML(XmlPullParser parser, Map<String, Integer> counts) throws XmlPullParserException,
             IOException {
         int eventType = parser.getEventType();
 
@@ -211,7 +442,7 @@ public class SwitchStatistics {
                         }
                     }
                     if (packageName != null && packageCount != 0) {
-                        addSavedTraceEntry(packageName, packageCount);
+                        counts.put(packageName, packageCount);
                     }
                 }
                 break;
@@ -0,0 +1,156 @@
+/*
+ *  Copyright (C) 2023 The OmniROM Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.omnirom.omniswitch;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Difference between two consecutive recent task lists keyed
+ * by persistent task id.
+ */
+public class TaskChangeSet {
+    private final List<TaskDescription> mInserted = new ArrayList<TaskDescription>();
+    private final List<TaskDescription> mRemoved = new ArrayList<TaskDescription>();
+    private final List<TaskDescription> mMoved = new ArrayList<TaskDescription>();
+    private final List<TaskDescription> mChanged = new ArrayList<TaskDescription>();
+    private boolean mFullUpdate;
+    // all inserted tasks are behind the ones that were already there
+    private boolean mAppendOnly;
+
+    public static TaskChangeSet fullUpdate() {
+        TaskChangeSet changes = new TaskChangeSet();
+        changes.mFullUpdate = true;
+        return changes;
+    }
+
+    /**
+     * @param changedIds tasks that are in both lists but had to be
+     * re-resolved e.g. because lastActiveTime changed
+     */
+    public static TaskChangeSet compute(List<TaskDescription> oldList,
+            List<TaskDescription> newList, Set<Integer> changedIds) {
+        TaskChangeSet changes = new TaskChangeSet();
+        Map<Integer, TaskDescription> oldTasks = new HashMap<Integer, TaskDescription>();
+        for (TaskDescription td : oldList) {
+            oldTasks.put(td.getPersistentTaskId(), td);
+        }
+        Map<Integer, TaskDescription> newTasks = new HashMap<Integer, TaskDescription>();
+        for (TaskDescription td : newList) {
+            newTasks.put(td.getPersistentTaskId(), td);
+        }
+
+        List<TaskDescription> oldCommon = new ArrayList<TaskDescription>();
+        for (TaskDescription td : oldList) {
+            if (newTasks.containsKey(td.getPersistentTaskId())) {
+                oldCommon.add(td);
+            } else {
+                changes.mRemoved.add(td);
+            }
+        }
+        int commonIndex = 0;
+        boolean appendOnly = changes.mRemoved.size() == 0;
+        for (TaskDescription td : newList) {
+            if (!oldTasks.containsKey(td.getPersistentTaskId())) {
+                changes.mInserted.add(td);
+                continue;
+            }
+            if (changes.mInserted.size() != 0) {
+                appendOnly = false;
+            }
+            // compare relative order of the tasks that survived
+            if (oldCommon.get(commonIndex).getPersistentTaskId() != td.getPersistentTaskId()) {
+                changes.mMoved.add(td);
+            }
+            if (changedIds.contains(td.getPersistentTaskId())) {
+                changes.mChanged.add(td);
+            }
+            commonIndex++;
+        }
+        changes.mAppendOnly = appendOnly && changes.mMoved.size() == 0
+                && changes.mInserted.size() != 0;
+        return changes;
+    }
+
+    /**
+     * Combine two append only change sets that were never applied
+     * @return null if they cannot be combined
+     */
+    public static TaskChangeSet mergeAppends(TaskChangeSet first, TaskChangeSet second) {
+        if (!first.isAppendOnly() || !second.isAppendOnly()) {
+            return null;
+        }
+        TaskChangeSet changes = new TaskChangeSet();
+        changes.mInserted.addAll(first.mInserted);
+        changes.mInserted.addAll(second.mInserted);
+        changes.mChanged.addAll(first.mChanged);
+        changes.mChanged.addAll(second.mChanged);
+        changes.mAppendOnly = true;
+        return changes;
+    }
+
+    public List<TaskDescription> getInserted() {
+        return mInserted;
+    }
+
+    public List<TaskDescription> getRemoved() {
+        return mRemoved;
+    }
+
+    public List<TaskDescription> getMoved() {
+        return mMoved;
+    }
+
+    public List<TaskDescription> getChanged() {
+        return mChanged;
+    }
+
+    public boolean isFullUpdate() {
+        return mFullUpdate;
+    }
+
+    /**
+     * true if tasks were only added at the end so views of the
+     * existing positions can be kept
+     */
+    public boolean isAppendOnly() {
+        return mAppendOnly;
+    }
+
+    /**
+     * true if positions in the list have changed and adapters
+     * must be notified
+     */
+    public boolean isStructural() {
+        return mFullUpdate || mInserted.size() != 0 || mRemoved.size() != 0
+                || mMoved.size() != 0;
+    }
+
+    public boolean isEmpty() {
+        return !isStructural() && mChanged.size() == 0;
+    }
+
+    @Override
+    public String toString() {
+        return "full=" + mFullUpdate + " append=" + mAppendOnly + " inserted=" + mInserted + " removed=" + mRemoved
+                + " moved=" + mMoved + " changed=" + mChanged;
+    }
+}
@@ -33,6 +33,7 @@ public final class TaskDescription {
     final int persistentTaskId; // persistent id
     final Intent intent; // launch intent for application
     private Drawable mIcon; // application package icon
+    private Drawable mHeaderIcon; // icon resized for the thumb header
     private boolean mIsActive;
     private boolean mKilled;
     private ThumbChangeListener mListener;
@@ -46,6 +47,7 @@ public final class TaskDescription {
     private int mActivityBackgroundColor;
     private boolean mUseLightOnPrimaryColor;
     private boolean mMultiWindowMode;
+    private long mLastActiveTime;
 
     public static interface ThumbChangeListener {
         public void thumbChanged(int pesistentTaskId);
@@ -69,6 +71,15 @@ public final class TaskDescription {
 
     public void setIcon(Drawable icon) {
         mIcon = icon;
+        mHeaderIcon = null;
+    }
+
+    public Drawable getHeaderIcon() {
+        return mHeaderIcon;
+    }
+
+    public void setHeaderIcon(Drawable icon) {
+        mHeaderIcon = icon;
     }
 
     public int getTaskId() {
@@ -188,4 +199,12 @@ public final class TaskDescription {
     public boolean isMultiWindowMode() {
         return mMultiWindowMode;
     }
+
+    public long getLastActiveTime() {
+        return mLastActiveTime;
+    }
+
+    public void setLastActiveTime(long lastActiveTime) {
+        mLastActiveTime = lastActiveTime;
+    }
 }
@@ -0,0 +1,196 @@
+/*
+ *  Copyright (C) 2023 The OmniROM Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.omnirom.omniswitch;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import android.os.Process;
+import android.util.Log;
+
+/**
+ * Small bounded worker pool for all recents loading work.
+ * Requests are ordered by priority and then by submit order,
+ * requests with the same key are coalesced and cancelAll drops
+ * everything that was submitted before.
+ */
+public class TaskLoaderScheduler {
+    private static final String TAG = "TaskLoaderScheduler";
+    private static final boolean DEBUG = false;
+    private static final int MAX_WORKERS = 2;
+    private static final int KEEP_ALIVE_SECONDS = 10;
+
+    public static final int PRIORITY_VISIBLE = 0;
+    public static final int PRIORITY_PREFETCH = 1;
+    public static final int PRIORITY_BACKGROUND = 2;
+
+    public static abstract class Job {
+        private TaskLoaderScheduler mScheduler;
+        private int mGeneration;
+
+        public abstract void run();
+
+        /**
+         * called instead of run if the job was dropped before it could start
+         */
+        protected void onCancelled() {
+        }
+
+        /**
+         * long running jobs should poll this and stop early
+         */
+        protected boolean isCancelled() {
+            return mScheduler == null || mScheduler.mGeneration != mGeneration;
+        }
+    }
+
+    private class Request implements Runnable, Comparable<Request> {
+        final String mKey;
+        final int mPriority;
+        final long mSequence;
+        final Job mJob;
+
+        Request(String key, int priority, long sequence, Job job) {
+            mKey = key;
+            mPriority = priority;
+            mSequence = sequence;
+            mJob = job;
+        }
+
+        @Override
+        public void run() {
+            synchronized (mPending) {
+                if (mPending.get(mKey) == this) {
+                    mPending.remove(mKey);
+                }
+            }
+            if (mJob.isCancelled()) {
+                mJob.onCancelled();
+                return;
+            }
+            try {
+                mJob.run();
+            } catch (Exception e) {
+                Log.e(TAG, "job " + mKey + " failed", e);
+            }
+        }
+
+        @Override
+        public int compareTo(Request another) {
+            if (mPriority != another.mPriority) {
+                return mPriority < another.mPriority ? -1 : 1;
+            }
+            return mSequence < another.mSequence ? -1 : (mSequence == another.mSequence ? 0 : 1);
+        }
+    }
+
+    private final ThreadPoolExecutor mExecutor;
+    private final Map<String, Request> mPending = new HashMap<String, Request>();
+    private volatile int mGeneration;
+    private long mSequence;
+
+    public TaskLoaderScheduler() {
+        this("TaskLoader");
+    }
+
+    public TaskLoaderScheduler(final String name) {
+        mExecutor = new ThreadPoolExecutor(MAX_WORKERS, MAX_WORKERS,
+                KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new PriorityBlockingQueue<Runnable>(),
+                new ThreadFactory() {
+                    private int mCount;
+
+                    @Override
+                    public Thread newThread(final Runnable r) {
+                        return new Thread(new Runnable() {
+                            @Override
+                            public void run() {
+                                Process.setThreadPriority(Process.THREAD_PRIORITY_FOREGROUND);
+                                r.run();
+                            }
+                        }, "OmniSwitch:" + name + "-" + mCount++);
+                    }
+                });
+        mExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * @return false if an equal or more important request with
+     * the same key is already waiting
+     */
+    public boolean submit(String key, int priority, Job job) {
+        Request request = null;
+        synchronized (mPending) {
+            Request pending = mPending.get(key);
+            if (pending != null) {
+                if (pending.mPriority <= priority) {
+                    if (DEBUG) {
+                        Log.d(TAG, "coalesce " + key);
+                    }
+                    return false;
+                }
+                // raise priority - queue entries are immutable so replace it
+                if (!mExecutor.remove(pending)) {
+                    // already picked up by a worker
+                    return false;
+                }
+                if (DEBUG) {
+                    Log.d(TAG, "promote " + key + " to " + priority);
+                }
+            }
+            job.mScheduler = this;
+            job.mGeneration = mGeneration;
+            request = new Request(key, priority, mSequence++, job);
+            mPending.put(key, request);
+        }
+        mExecutor.execute(request);
+        return true;
+    }
+
+    /**
+     * Drops all waiting requests and marks running ones as cancelled
+     */
+    public void cancelAll() {
+        List<Request> dropped = new ArrayList<Request>();
+        synchronized (mPending) {
+            mGeneration++;
+            dropped.addAll(mPending.values());
+            mPending.clear();
+        }
+        for (Request request : dropped) {
+            // if a worker already took it run() will notice the cancel
+            if (mExecutor.remove(request)) {
+                request.mJob.onCancelled();
+            }
+        }
+        if (DEBUG) {
+            Log.d(TAG, "cancelAll generation = " + mGeneration + " dropped = " + dropped.size());
+        }
+    }
+
+    public void shutdown() {
+        cancelAll();
+        mExecutor.shutdown();
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ *  Copyright (C) 2023 The OmniROM Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.omnirom.omniswitch;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+
+import android.app.ActivityManager;
+import android.app.IActivityManager;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.os.RemoteException;
+import android.os.SystemClock;
+import android.util.Log;
+
+/**
+ * Removes tasks on a background thread so the overlay never waits
+ * for one binder call per task. Results are posted to the main thread
+ * as each removal is confirmed.
+ */
+public class TaskRemover {
+    private static final String TAG = "OmniSwitch:TaskRemover";
+    private static final boolean DEBUG = false;
+
+    public interface Callback {
+        /**
+         * one task is gone
+         */
+        public void onTaskRemoved(TaskDescription ad);
+
+        /**
+         * @param failed tasks the system refused to remove
+         */
+        public void onDone(int removed, List<TaskDescription> failed);
+    }
+
+    private final IActivityManager mIAm;
+    private final Handler mHandler;
+    private final ExecutorService mExecutor;
+
+    public TaskRemover() {
+        mIAm = ActivityManager.getService();
+        mHandler = new Handler(Looper.getMainLooper());
+        mExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable r) {
+                return new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                        r.run();
+                    }
+                }, "OmniSwitch:TaskRemover");
+            }
+        });
+    }
+
+    /**
+     * Remove all tasks in list order as one batch
+     */
+    public void removeTasks(List<TaskDescription> tasks, final Callback callback) {
+        final List<TaskDescription> batch = new ArrayList<TaskDescription>(tasks);
+        try {
+            mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    final long start = SystemClock.elapsedRealtime();
+                    final List<TaskDescription> failed = new ArrayList<TaskDescription>();
+                    int removed = 0;
+                    for (final TaskDescription ad : batch) {
+                        if (removeTask(ad.getPersistentTaskId())) {
+                            removed++;
+                            mHandler.post(new Runnable() {
+                                @Override
+                                public void run() {
+                                    callback.onTaskRemoved(ad);
+                                }
+                            });
+                        } else {
+                            failed.add(ad);
+                        }
+                    }
+                    if (DEBUG) Log.d(TAG, "removed " + removed + " of " + batch.size() + " in "
+                            + (SystemClock.elapsedRealtime() - start) + "ms");
+                    final int removedCount = removed;
+                    mHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            callback.onDone(removedCount, failed);
+                        }
+                    });
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            Log.e(TAG, "removeTasks after shutdown", e);
+        }
+    }
+
+    public void shutdown() {
+        // queued batches still run
+        mExecutor.shutdown();
+    }
+
+    private boolean removeTask(int taskId) {
+        try {
+            return mIAm.removeTask(taskId);
+        } catch (RemoteException e) {
+            Log.e(TAG, "removeTask failed " + taskId, e);
+        }
+        return false;
+    }
+}
@@ -0,0 +1,227 @@
+/*
+ *  Copyright (C) 2023 The OmniROM Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.omnirom.omniswitch;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import android.app.ActivityManager;
+import android.app.ActivityTaskManager;
+import android.app.TaskStackListener;
+import android.content.ComponentName;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.RemoteException;
+import android.os.SystemClock;
+import android.util.Log;
+import android.window.TaskSnapshot;
+
+/**
+ * Collects task stack changes and reports them in batches so the
+ * recents list can be kept current while the overlay is hidden.
+ * Events of a burst are delivered together once the stack has been
+ * quiet for EVENT_DELAY but never later than MAX_EVENT_DELAY after
+ * the first one.
+ */
+public class TaskStackMonitor {
+    private static final String TAG = "TaskStackMonitor";
+    private static final boolean DEBUG = false;
+    private static final long EVENT_DELAY = 150;
+    private static final long MAX_EVENT_DELAY = 500;
+
+    public static final int EVENT_STACK_CHANGED = 0;
+    public static final int EVENT_TASK_CREATED = 1;
+    public static final int EVENT_TASK_MOVED_TO_FRONT = 2;
+    public static final int EVENT_TASK_REMOVED = 3;
+    public static final int EVENT_TASK_SNAPSHOT_CHANGED = 4;
+
+    public interface OnTaskStackChangedListener {
+        /**
+         * @param snapshotChangedIds tasks that got a new snapshot
+         */
+        public void onTaskStackChanged(Set<Integer> snapshotChangedIds);
+    }
+
+    /**
+     * Delivers raw events - may call back on any thread
+     */
+    public interface EventSource {
+        public void register(TaskStackMonitor monitor);
+        public void unregister();
+    }
+
+    /**
+     * Events of the system task stack
+     */
+    public static class SystemEventSource implements EventSource {
+        private TaskStackListener mListener;
+
+        @Override
+        public void register(final TaskStackMonitor monitor) {
+            mListener = new TaskStackListener() {
+                @Override
+                public void onTaskStackChanged() {
+                    monitor.onEvent(EVENT_STACK_CHANGED, -1);
+                }
+
+                @Override
+                public void onTaskCreated(int taskId, ComponentName componentName) {
+                    monitor.onEvent(EVENT_TASK_CREATED, taskId);
+                }
+
+                @Override
+                public void onTaskMovedToFront(ActivityManager.RunningTaskInfo taskInfo) {
+                    monitor.onEvent(EVENT_TASK_MOVED_TO_FRONT, taskInfo.taskId);
+                }
+
+                @Override
+                public void onTaskRemoved(int taskId) {
+                    monitor.onEvent(EVENT_TASK_REMOVED, taskId);
+                }
+
+                @Override
+                public void onTaskSnapshotChanged(int taskId, TaskSnapshot snapshot) {
+                    monitor.onEvent(EVENT_TASK_SNAPSHOT_CHANGED, taskId);
+                }
+            };
+            try {
+                ActivityTaskManager.getService().registerTaskStackListener(mListener);
+            } catch (RemoteException e) {
+                Log.e(TAG, "registerTaskStackListener", e);
+                mListener = null;
+            }
+        }
+
+        @Override
+        public void unregister() {
+            if (mListener == null) {
+                return;
+            }
+            try {
+                ActivityTaskManager.getService().unregisterTaskStackListener(mListener);
+            } catch (RemoteException e) {
+                Log.e(TAG, "unregisterTaskStackListener", e);
+            }
+            mListener = null;
+        }
+    }
+
+    /**
+     * Stand-in source that only delivers what is passed to dispatch
+     * e.g. to drive the recents model without a system server
+     */
+    public static class ManualEventSource implements EventSource {
+        private TaskStackMonitor mMonitor;
+
+        @Override
+        public void register(TaskStackMonitor monitor) {
+            mMonitor = monitor;
+        }
+
+        @Override
+        public void unregister() {
+            mMonitor = null;
+        }
+
+        public void dispatch(int event, int taskId) {
+            if (mMonitor != null) {
+                mMonitor.onEvent(event, taskId);
+            }
+        }
+    }
+
+    private final EventSource mSource;
+    private final OnTaskStackChangedListener mListener;
+    private final Handler mHandler;
+    // only touched on the handler thread
+    private final Set<Integer> mSnapshotChangedIds = new HashSet<Integer>();
+    private long mFirstPendingEvent;
+    private int mPendingEvents;
+    private boolean mRegistered;
+
+    private final Runnable mFlushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    public TaskStackMonitor(EventSource source, OnTaskStackChangedListener listener) {
+        this(source, listener, new Handler(Looper.getMainLooper()));
+    }
+
+    public TaskStackMonitor(EventSource source, OnTaskStackChangedListener listener, Handler handler) {
+        mSource = source;
+        mListener = listener;
+        mHandler = handler;
+    }
+
+    public void start() {
+        if (!mRegistered) {
+            mRegistered = true;
+            mSource.register(this);
+        }
+    }
+
+    public void stop() {
+        if (mRegistered) {
+            mRegistered = false;
+            mSource.unregister();
+            mHandler.removeCallbacksAndMessages(null);
+        }
+    }
+
+    public boolean isStarted() {
+        return mRegistered;
+    }
+
+    void onEvent(final int event, final int taskId) {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (!mRegistered) {
+                    return;
+                }
+                if (DEBUG) Log.d(TAG, "onEvent " + event + " " + taskId);
+                final long now = SystemClock.uptimeMillis();
+                if (mPendingEvents == 0) {
+                    mFirstPendingEvent = now;
+                }
+                mPendingEvents++;
+                if (event == EVENT_TASK_SNAPSHOT_CHANGED) {
+                    mSnapshotChangedIds.add(taskId);
+                }
+                mHandler.removeCallbacks(mFlushRunnable);
+                final long delay = Math.min(EVENT_DELAY,
+                        Math.max(0, mFirstPendingEvent + MAX_EVENT_DELAY - now));
+                mHandler.postDelayed(mFlushRunnable, delay);
+            }
+        });
+    }
+
+    private void flush() {
+        if (mPendingEvents == 0) {
+            return;
+        }
+        if (DEBUG) Log.d(TAG, "flush " + mPendingEvents + " events");
+        Set<Integer> snapshotChangedIds = new HashSet<Integer>(mSnapshotChangedIds);
+        mSnapshotChangedIds.clear();
+        mPendingEvents = 0;
+        mListener.onTaskStackChanged(snapshotChangedIds);
+    }
+}
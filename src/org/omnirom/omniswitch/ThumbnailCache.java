@@ -0,0 +1,214 @@
+/*
+ *  Copyright (C) 2023 The OmniROM Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.omnirom.omniswitch;
+
+import java.io.PrintWriter;
+
+import org.omnirom.omniswitch.ui.SwitchGestureView;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Matrix;
+import android.util.Log;
+import android.util.LruCache;
+
+/**
+ * Task thumbnails keyed by persistent task id and snapshot id.
+ * Bitmaps are stored already cropped and scaled to the size
+ * ThumbnailTaskView draws them.
+ */
+public class ThumbnailCache {
+    private static final String TAG = "OmniSwitch:ThumbnailCache";
+    private static final boolean DEBUG = false;
+    // enough for a full vertical recents list
+    private static final int DEFAULT_MAX_ENTRIES = 24;
+
+    private static ThumbnailCache sInstance;
+    private SwitchConfiguration mConfiguration;
+    private LruCache<Integer, Entry> mMemoryCache;
+    // index 0 low res - 1 high res
+    private final int[] mHits = new int[2];
+    private final int[] mFetches = new int[2];
+    private final long[] mFetchTime = new long[2];
+
+    private static class Entry {
+        final ThumbnailData mData;
+        final int mSize;
+        long mLastActiveTime;
+        // false if the task was in front when the snapshot was taken
+        boolean mFinal;
+
+        Entry(ThumbnailData data, int size) {
+            mData = data;
+            mSize = size;
+        }
+    }
+
+    public static ThumbnailCache getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new ThumbnailCache(context);
+        }
+        return sInstance;
+    }
+
+    private ThumbnailCache(Context context) {
+        mConfiguration = SwitchConfiguration.getInstance(context);
+        final int size = getTargetSize();
+        int cacheSize = size * size * 4 * DEFAULT_MAX_ENTRIES;
+        if (DEBUG) Log.d(TAG, "cacheSize = " + cacheSize);
+
+        mMemoryCache = new LruCache<Integer, Entry>(cacheSize) {
+            @Override
+            protected int sizeOf(Integer key, Entry entry) {
+                return entry.mData.thumbnail.getByteCount();
+            }
+        };
+    }
+
+    /**
+     * Change the byte budget - evicts if the new one is smaller
+     */
+    public void setMaxBytes(int maxBytes) {
+        mMemoryCache.resize(maxBytes);
+    }
+
+    /**
+     * Thumb that can be used without asking for a new snapshot. Only
+     * valid for tasks that have not been active again since it was taken.
+     * @param lowRes a reduced resolution thumb is good enough
+     */
+    public ThumbnailData getIfCurrent(int persistentTaskId, long lastActiveTime, boolean lowRes) {
+        Entry entry = mMemoryCache.get(persistentTaskId);
+        if (entry != null && entry.mFinal && entry.mLastActiveTime == lastActiveTime
+                && entry.mSize == getTargetSize()
+                && (lowRes || !entry.mData.reducedResolution)) {
+            if (DEBUG) Log.d(TAG, "hit " + persistentTaskId + " lowRes = " + lowRes);
+            synchronized (mHits) {
+                mHits[lowRes ? 0 : 1]++;
+            }
+            return entry.mData;
+        }
+        return null;
+    }
+
+    /**
+     * Time spent for one getTaskSnapshot call
+     */
+    public void recordFetch(boolean lowRes, long time) {
+        synchronized (mHits) {
+            final int i = lowRes ? 0 : 1;
+            mFetches[i]++;
+            mFetchTime[i] += time;
+        }
+        if (DEBUG) Log.d(TAG, "fetch lowRes = " + lowRes + " " + time + "ms");
+    }
+
+    public void dump(PrintWriter pw) {
+        synchronized (mHits) {
+            pw.println("ThumbnailCache: entries = " + mMemoryCache.size()
+                    + " low res hits = " + mHits[0] + " fetches = " + mFetches[0]
+                    + " avg " + (mFetches[0] != 0 ? mFetchTime[0] / mFetches[0] : 0) + "ms"
+                    + " high res hits = " + mHits[1] + " fetches = " + mFetches[1]
+                    + " avg " + (mFetches[1] != 0 ? mFetchTime[1] / mFetches[1] : 0) + "ms");
+        }
+    }
+
+    /**
+     * Returns the cached thumb if it is from the same snapshot else
+     * a downsampled copy of the new snapshot that replaces it.
+     * @param isFront task is currently in front so its snapshot may
+     * still change without the last active time changing
+     */
+    public ThumbnailData put(int persistentTaskId, long lastActiveTime, boolean isFront,
+            ThumbnailData data) {
+        final int size = getTargetSize();
+        Entry entry = mMemoryCache.get(persistentTaskId);
+        if (entry != null && entry.mData.snapshotId == data.snapshotId && entry.mSize == size
+                && !entry.mData.reducedResolution && data.reducedResolution) {
+            // never go back to low res for the same snapshot
+            if (DEBUG) Log.d(TAG, "keep high res " + persistentTaskId);
+        } else if (entry == null || entry.mData.snapshotId != data.snapshotId || entry.mSize != size
+                || entry.mData.reducedResolution != data.reducedResolution) {
+            if (DEBUG) Log.d(TAG, "new snapshot " + persistentTaskId + " " + data.snapshotId);
+            entry = new Entry(downsample(data, size), size);
+        }
+        entry.mLastActiveTime = lastActiveTime;
+        entry.mFinal = !isFront;
+        mMemoryCache.put(persistentTaskId, entry);
+        return entry.mData;
+    }
+
+    /**
+     * Reduced resolution thumb that is drawn larger than it is
+     */
+    public boolean needsHighRes(ThumbnailData data) {
+        return data.reducedResolution
+                && Math.min(data.thumbnail.getWidth(), data.thumbnail.getHeight()) < getTargetSize();
+    }
+
+    public void remove(int persistentTaskId) {
+        mMemoryCache.remove(persistentTaskId);
+    }
+
+    public void clear() {
+        if (DEBUG) Log.d(TAG, "clear");
+        mMemoryCache.evictAll();
+    }
+
+    public void onTrimMemory(int level) {
+        if (DEBUG) Log.d(TAG, "onTrimMemory " + level);
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE
+                || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            mMemoryCache.evictAll();
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN
+                || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            mMemoryCache.trimToSize(mMemoryCache.maxSize() / 2);
+        }
+    }
+
+    // largest square any of the layouts will draw
+    private int getTargetSize() {
+        final float ratio = Math.max(mConfiguration.mThumbRatio, SwitchGestureView.THUMB_RATIO);
+        return (int) (Math.max(mConfiguration.mThumbnailWidth, mConfiguration.mThumbnailHeight) * ratio);
+    }
+
+    // ThumbnailTaskView only draws the top left square so drop the rest
+    private ThumbnailData downsample(ThumbnailData data, int size) {
+        final Bitmap src = data.thumbnail;
+        final int bSize = Math.min(src.getWidth(), src.getHeight());
+        if (bSize <= 0) {
+            return data;
+        }
+        final float scale = Math.min(1f, (float) size / bSize);
+        Matrix m = new Matrix();
+        m.setScale(scale, scale);
+        ThumbnailData thumb = new ThumbnailData();
+        thumb.thumbnail = Bitmap.createBitmap(src, 0, 0, bSize, bSize, m, true);
+        thumb.orientation = data.orientation;
+        thumb.rotation = data.rotation;
+        thumb.insets.set(data.insets);
+        thumb.reducedResolution = data.reducedResolution;
+        thumb.isRealSnapshot = data.isRealSnapshot;
+        thumb.isTranslucent = data.isTranslucent;
+        thumb.windowingMode = data.windowingMode;
+        thumb.scale = data.scale * scale;
+        thumb.snapshotId = data.snapshotId;
+        return thumb;
+    }
+}
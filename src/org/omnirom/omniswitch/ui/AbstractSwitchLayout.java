@@ -22,6 +22,8 @@ import java.util.Iterator;
 import java.util.List;
 
 import org.omnirom.omniswitch.PackageManager;
+import org.omnirom.omniswitch.RecentTasksLoader;
+import org.omnirom.omniswitch.TaskChangeSet;
 import org.omnirom.omniswitch.TaskDescription;
 import org.omnirom.omniswitch.Utils;
 import org.omnirom.omniswitch.SwitchConfiguration;
@@ -140,6 +142,8 @@ public abstract class AbstractSwitchLayout implements ISwitchLayout {
     protected boolean mShowFavorites;
     protected boolean mTaskLoadDone;
     protected boolean mUpdateNoRecentsTasksDone;
+    // changes of the last task load not yet applied to the recents list
+    private TaskChangeSet mPendingRecentsChanges;
     protected TextView mNoRecentApps;
     protected LinearLayout mButtonListItems;
     protected LinearLayout mButtonListContainer;
@@ -149,6 +153,8 @@ public abstract class AbstractSwitchLayout implements ISwitchLayout {
     protected View mOpenFavorite;
     protected AnimatorSet mShowFavAnim;
     protected AnimatorSet mAppDrawerAnim;
+    // changes with prefs and layout - bound items of older ones are rebound
+    protected int mBindGeneration;
     private Typeface mLabelFont;
 
     protected GestureDetector.OnGestureListener mGestureListener = new GestureDetector.OnGestureListener() {
@@ -344,6 +350,7 @@ public abstract class AbstractSwitchLayout implements ISwitchLayout {
 
     @Override
     public void updateLayout() {
+        mBindGeneration++;
         try {
             if (mAppDrawer != null) {
                 mAppDrawer.setLayoutParams(getAppDrawerParams());
@@ -710,6 +717,8 @@ public abstract class AbstractSwitchLayout implements ISwitchLayout {
         if (DEBUG) {
             Log.d(TAG, "updatePrefs " + key);
         }
+        // header colors, labels and fonts may have changed
+        mBindGeneration++;
         if (key != null && key.equals(SettingsActivity.PREF_SYSTEM_FONT)) {
             mLabelFont = Utils.getAppLabelFont(mContext);
         }
@@ -725,6 +734,42 @@ public abstract class AbstractSwitchLayout implements ISwitchLayout {
 
     protected abstract void flipToRecentsNew();
 
+    protected abstract ViewGroup getRecentListView();
+
+    @Override
+    public void animateTaskRemoved(TaskDescription ad, final Runnable endAction) {
+        final View view = findTaskView(ad);
+        if (view == null) {
+            endAction.run();
+            return;
+        }
+        view.animate().alpha(0f).setDuration(HIDE_DURATION).withEndAction(new Runnable() {
+            @Override
+            public void run() {
+                // views are recycled by the adapter
+                view.setAlpha(1f);
+                endAction.run();
+            }
+        });
+    }
+
+    private View findTaskView(TaskDescription ad) {
+        final ViewGroup list = getRecentListView();
+        if (list == null) {
+            return null;
+        }
+        for (int i = 0; i < list.getChildCount(); i++) {
+            View child = list.getChildAt(i);
+            if (child instanceof ThumbnailTaskView && ((ThumbnailTaskView) child).getTask() == ad) {
+                return child;
+            }
+            if (child instanceof PackageTextView && ((PackageTextView) child).getTask() == ad) {
+                return child;
+            }
+        }
+        return null;
+    }
+
     protected void toggleAppdrawer() {
         mShowAppDrawer = !mShowAppDrawer;
         if (mShowAppDrawer) {
@@ -799,15 +844,13 @@ public abstract class AbstractSwitchLayout implements ISwitchLayout {
         }
     }
 
-    public void finishSlideLayout() {
+    public boolean finishSlideLayout() {
         if (DEBUG) {
             Log.d(TAG, "finishSlideLayout " + mCurrentDistance);
         }
-        if (mCurrentDistance > getSlideEndValue() / 2) {
-            finishOverlaySlide(true, false);
-        } else {
-            finishOverlaySlide(false, false);
-        }
+        final boolean show = mCurrentDistance > getSlideEndValue() / 2;
+        finishOverlaySlide(show, false);
+        return show;
     }
 
     @Override
@@ -1099,6 +1142,8 @@ public abstract class AbstractSwitchLayout implements ISwitchLayout {
         // reset
         mTaskLoadDone = false;
         mUpdateNoRecentsTasksDone = false;
+        mPendingRecentsChanges = null;
+        RecentTasksLoader.getInstance(mContext).cancelPendingTaskInfo();
 
         mRecentsManager.getSwitchGestureView().overlayHidden();
 
@@ -1229,12 +1274,19 @@ public abstract class AbstractSwitchLayout implements ISwitchLayout {
     }
 
     @Override
-    public synchronized void update() {
+    public synchronized void update(TaskChangeSet changes) {
         if (DEBUG) {
             Log.d(TAG, "update " + System.currentTimeMillis() + " "
                     + mRecentsManager.getTasks());
         }
 
+        if (mPendingRecentsChanges != null) {
+            // previous changes never applied - only appends can be merged
+            TaskChangeSet merged = TaskChangeSet.mergeAppends(mPendingRecentsChanges, changes);
+            mPendingRecentsChanges = merged != null ? merged : TaskChangeSet.fullUpdate();
+        } else {
+            mPendingRecentsChanges = changes;
+        }
         mTaskLoadDone = true;
         if (isHandleRecentsUpdate()) {
             updateRecentsAppsList(true, false);
@@ -1348,11 +1400,22 @@ public abstract class AbstractSwitchLayout implements ISwitchLayout {
         });
     }
 
+    /**
+     * returns the changes to apply to the recents list
+     * null means a full update is needed
+     */
+    protected synchronized TaskChangeSet consumeRecentsChanges() {
+        TaskChangeSet changes = mPendingRecentsChanges;
+        mPendingRecentsChanges = null;
+        return changes;
+    }
+
     /* if quick switcher was triggerd update() will be called
     but the values never reset since hideDone() is not called */
     public void resetRecentsState() {
         mTaskLoadDone = false;
         mUpdateNoRecentsTasksDone = false;
+        mPendingRecentsChanges = null;
     }
 
     protected abstract FrameLayout.LayoutParams getAppDrawerParams();
@@ -23,6 +23,7 @@ import android.content.SharedPreferences;
 import android.graphics.Color;
 import android.graphics.Point;
 import android.graphics.Typeface;
+import android.graphics.drawable.ColorDrawable;
 import android.graphics.drawable.Drawable;
 import android.os.Handler;
 import android.preference.PreferenceManager;
@@ -52,11 +53,13 @@ import org.omnirom.omniswitch.Utils;
 import org.omnirom.omniswitch.R;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
 
-public class AppDrawerView extends GridView {
+public class AppDrawerView extends GridView implements IconPrewarmer.OnIconReadyListener,
+        PackageManager.OnPackageChangeListener {
     private static final String TAG = "AppDrawerView";
     private static final boolean DEBUG = false;
 
@@ -66,6 +69,8 @@ public class AppDrawerView extends GridView {
     private SwitchManager mRecentsManager;
     protected Typeface mLabelFont;
     private List<PackageManager.PackageItem> mFilteredPackagesList;
+    private int mPackageGeneration;
+    private static final Drawable sIconPlaceholder = new ColorDrawable(Color.TRANSPARENT);
 
     public class AppDrawerListAdapter extends
             ArrayAdapter<PackageManager.PackageItem> {
@@ -91,7 +96,12 @@ public class AppDrawerView extends GridView {
             } else {
                 item.setText("");
             }
-            Drawable d = BitmapCache.getInstance(mContext).getPackageIconCached(getResources(), packageItem, mConfiguration);
+            Drawable d = BitmapCache.getInstance(mContext).getPackageIconIfCached(packageItem, mConfiguration);
+            if (d == null) {
+                // swapped in from onIconReady
+                d = sIconPlaceholder;
+                IconPrewarmer.getInstance(mContext).request(packageItem);
+            }
             d.setBounds(0, 0, mConfiguration.mIconSizePx, mConfiguration.mIconSizePx);
             item.setCompoundDrawables(null, d, null, null);
             return item;
@@ -129,6 +139,54 @@ public class AppDrawerView extends GridView {
         });
     }
 
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        IconPrewarmer.getInstance(mContext).addListener(this);
+        PackageManager.getInstance(mContext).addOnPackageChangeListener(this);
+        if (mPackageGeneration != PackageManager.getInstance(mContext).getGeneration()) {
+            // missed changes while detached
+            updateHiddenAppsList();
+            mAppDrawerListAdapter.notifyDataSetChanged();
+        }
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        IconPrewarmer.getInstance(mContext).removeListener(this);
+        PackageManager.getInstance(mContext).removeOnPackageChangeListener(this);
+    }
+
+    @Override
+    public void onPackageChanged(PackageManager.PackageChange change) {
+        if (DEBUG) {
+            Log.d(TAG, "onPackageChanged " + change);
+        }
+        mPackageGeneration = PackageManager.getInstance(mContext).getGeneration();
+        mFilteredPackagesList.removeAll(change.getRemoved());
+        Set<String> hiddenAppsList = mConfiguration.mHiddenAppsList;
+        for (PackageManager.PackageItem item : change.getAdded()) {
+            if (!hiddenAppsList.contains(item.getIntent())) {
+                int pos = Collections.binarySearch(mFilteredPackagesList, item);
+                mFilteredPackagesList.add(pos < 0 ? -pos - 1 : pos, item);
+            }
+        }
+        mAppDrawerListAdapter.notifyDataSetChanged();
+    }
+
+    @Override
+    public void onIconReady(String intent, Drawable icon) {
+        for (int i = 0; i < getChildCount(); i++) {
+            View child = getChildAt(i);
+            if (child instanceof PackageTextView
+                    && intent.equals(((PackageTextView) child).getIntent())) {
+                icon.setBounds(0, 0, mConfiguration.mIconSizePx, mConfiguration.mIconSizePx);
+                ((PackageTextView) child).setCompoundDrawables(null, icon, null, null);
+            }
+        }
+    }
+
     public void setTransparentMode(boolean value) {
         mTransparent = value;
     }
@@ -171,9 +229,9 @@ public class AppDrawerView extends GridView {
         }
         if (key != null && Utils.isPrefKeyForForceUpdate(key)) {
             setAdapter(mAppDrawerListAdapter);
+            IconPrewarmer.getInstance(mContext).prewarm(mFilteredPackagesList);
         }
-        if (key != null && (key.equals(PackageManager.PACKAGES_UPDATED_TAG) ||
-                key.equals(SettingsActivity.PREF_HIDDEN_APPS))) {
+        if (key != null && key.equals(SettingsActivity.PREF_HIDDEN_APPS)) {
             updateHiddenAppsList();
             mAppDrawerListAdapter.notifyDataSetChanged();
         }
@@ -236,5 +294,6 @@ public class AppDrawerView extends GridView {
                 mFilteredPackagesList.add(app);
             }
         }
+        mPackageGeneration = PackageManager.getInstance(mContext).getGeneration();
     }
 }
@@ -25,23 +25,53 @@ import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
 import android.content.res.Resources;
+import android.graphics.Bitmap;
 import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.Drawable;
 import android.util.IconDrawableFactory;
 import android.util.LruCache;
 import android.util.Log;
 
+import java.util.EnumMap;
 import java.util.Iterator;
 import java.util.HashMap;
 import java.util.Map;
 
+/**
+ * Rendered icons in memory. Every size class has its own LRU and budget
+ * so the many drawer icons can not push out the few quick or header ones.
+ * Invalidation always covers all size classes.
+ */
 public class BitmapCache {
     private static final String TAG = "OmniSwitch:BitmapCache";
     private static final boolean DEBUG = false;
     private static BitmapCache sInstance;
     private Context mContext;
-    private LruCache<String, Drawable> mMemoryCache;
+    private final Map<SizeClass, LruCache<String, Drawable>> mMemoryCaches =
+            new EnumMap<SizeClass, LruCache<String, Drawable>>(SizeClass.class);
     private final IconDrawableFactory mDrawableFactory;
+    private final DiskIconCache mDiskCache;
+    // evictAll is not an eviction of unused icons
+    private volatile boolean mClearing;
+
+    public enum SizeClass {
+        // overlay, favorites and app drawer - views keep them between binds
+        DRAWER(60, false),
+        // speed switcher favorites - fetched again on every activation
+        QUICK(20, true),
+        // thumb headers - kept by the tasks
+        HEADER(20, false);
+
+        // percent of the total budget
+        final int mBudget;
+        // evicted bitmaps are no longer drawn and can go to the BitmapPool
+        final boolean mRecycle;
+
+        SizeClass(int budget, boolean recycle) {
+            mBudget = budget;
+            mRecycle = recycle;
+        }
+    }
 
     public static BitmapCache getInstance(Context context) {
         if (sInstance == null){
@@ -54,37 +84,58 @@ public class BitmapCache {
         mContext = context;
         final int maxMemory = (int) (Runtime.getRuntime().maxMemory() / 1024);
 
-        // Use 1/3rd of the available memory for this memory cache.
+        // Use 1/3rd of the available memory for all memory caches.
         int cacheSize = maxMemory / 3;
         if (DEBUG) Log.d(TAG, "maxMemory = " + maxMemory +" cacheSize = " + cacheSize);
 
-        mMemoryCache = new LruCache<String, Drawable>(cacheSize) {
-            @Override
-            protected int sizeOf(String key, Drawable bitmap) {
-                // The cache size will be measured in kilobytes rather than
-                // number of items.
-                if (bitmap instanceof BitmapDrawable){
-                    return ((BitmapDrawable)bitmap).getBitmap().getByteCount() / 1024;
-                } else {
-                    return 1;
+        for (final SizeClass sizeClass : SizeClass.values()) {
+            mMemoryCaches.put(sizeClass, new LruCache<String, Drawable>(
+                    Math.max(1, cacheSize * sizeClass.mBudget / 100)) {
+                @Override
+                protected int sizeOf(String key, Drawable bitmap) {
+                    // The cache size will be measured in kilobytes rather than
+                    // number of items.
+                    if (bitmap instanceof BitmapDrawable){
+                        return ((BitmapDrawable)bitmap).getBitmap().getByteCount() / 1024;
+                    } else {
+                        return 1;
+                    }
                 }
-            }
-            @Override
-            protected void entryRemoved(boolean evicted, String key, Drawable oldValue, Drawable newValue){
-            }
-        };
+
+                @Override
+                protected void entryRemoved(boolean evicted, String key, Drawable oldValue,
+                        Drawable newValue) {
+                    // replaced or removed icons may still be shown
+                    if (evicted && !mClearing && sizeClass.mRecycle
+                            && oldValue instanceof BitmapDrawable) {
+                        BitmapPool.getInstance().put(((BitmapDrawable) oldValue).getBitmap());
+                    }
+                }
+            });
+        }
         mDrawableFactory = IconDrawableFactory.newInstance(mContext);
+        mDiskCache = new DiskIconCache(mContext);
     }
 
     public void clear() {
         if (DEBUG) Log.d(TAG, "clear");
-        mMemoryCache.evictAll();
+        mClearing = true;
+        try {
+            for (LruCache<String, Drawable> cache : mMemoryCaches.values()) {
+                cache.evictAll();
+            }
+        } finally {
+            mClearing = false;
+        }
     }
 
-    private String bitmapHash(Intent intent, int iconSize) {
+    private String bitmapHash(ComponentName component, int iconSize) {
         // unique identifier
-        String key = intent.getComponent().flattenToString();
-        return key + "_" + iconSize;
+        return component.flattenToString() + "_" + iconSize;
+    }
+
+    private String bitmapHash(Intent intent, int iconSize) {
+        return bitmapHash(intent.getComponent(), iconSize);
     }
 
     private IconPackHelper getIconPackHelper() {
@@ -96,48 +147,106 @@ public class BitmapCache {
         Drawable d = getBitmapFromMemCache(key);
         if (d == null){
             if (DEBUG) Log.d(TAG, "addToCache = " + key);
-            d = getPackageIconUncached(resources, packageItem, configuration, configuration.mIconSize);
-            d = mDrawableFactory.getShadowedIcon(d);
+            final String diskKey = mDiskCache.getKey(packageItem.getIntentRaw().getComponent(),
+                    configuration);
+            Bitmap b = diskKey != null ? mDiskCache.get(diskKey) : null;
+            if (b != null) {
+                d = new BitmapDrawable(resources, b);
+            } else {
+                d = getPackageIconUncached(resources, packageItem, configuration, configuration.mIconSize);
+                d = BitmapUtils.getBitmapDrawable(resources, mDrawableFactory.getShadowedIcon(d));
+                if (diskKey != null) {
+                    mDiskCache.put(diskKey, ((BitmapDrawable) d).getBitmap());
+                }
+            }
             addBitmapToMemoryCache(key, d);
         }
         return d;
     }
 
+    /**
+     * Speed switcher size - same rendering as getPackageIconUncached
+     */
+    public Drawable getPackageIconQuick(Resources resources, PackageManager.PackageItem packageItem, SwitchConfiguration configuration) {
+        final int iconSize = configuration.mIconSizeQuickPx;
+        final String key = bitmapHash(packageItem.getIntentRaw(), iconSize);
+        final LruCache<String, Drawable> cache = mMemoryCaches.get(SizeClass.QUICK);
+        Drawable d = cache.get(key);
+        if (d == null) {
+            if (DEBUG) Log.d(TAG, "addToQuickCache = " + key);
+            d = getPackageIconUncached(resources, packageItem, configuration, iconSize);
+            cache.put(key, d);
+        }
+        return d;
+    }
+
+    /**
+     * Task icon resized for the thumb header - shared by all tasks of the activity
+     */
+    public Drawable getTaskHeaderIcon(Resources resources, TaskDescription task, SwitchConfiguration configuration) {
+        final Drawable icon = task.getIcon();
+        if (icon == null) {
+            return null;
+        }
+        final ComponentName component = new ComponentName(task.getActivityInfo().packageName,
+                task.getActivityInfo().name);
+        final String key = bitmapHash(component, configuration.mOverlayIconSizePx);
+        final LruCache<String, Drawable> cache = mMemoryCaches.get(SizeClass.HEADER);
+        Drawable d = cache.get(key);
+        if (d == null) {
+            if (DEBUG) Log.d(TAG, "addToHeaderCache = " + key);
+            d = BitmapUtils.resize(resources, icon, configuration.mOverlayIconSizeDp, 0,
+                    configuration.mDensity);
+            cache.put(key, d);
+        }
+        return d;
+    }
+
+    /**
+     * Memory cache only - never renders
+     */
+    public Drawable getPackageIconIfCached(PackageManager.PackageItem packageItem, SwitchConfiguration configuration) {
+        return getBitmapFromMemCache(bitmapHash(packageItem.getIntentRaw(), configuration.mIconSize));
+    }
+
     public Drawable getPackageIconUncached(Resources resources, PackageManager.PackageItem packageItem, SwitchConfiguration configuration, int iconSize) {
         Drawable icon = PackageManager.getInstance(mContext).getPackageIcon(packageItem);
         if (getIconPackHelper().isIconPackLoaded() && (getIconPackHelper()
                 .getResourceIdForActivityIcon(packageItem.getActivityInfo()) == 0)) {
-            icon = BitmapUtils.compose(resources,
-                    icon, mContext, getIconPackHelper().getIconBackFor(packageItem.getTitle()),
-                    getIconPackHelper().getIconMask(), getIconPackHelper().getIconUpon(),
-                    getIconPackHelper().getIconScale(), iconSize, configuration.mDensity);
+            icon = getIconPackHelper().getCompositor(iconSize, configuration.mDensity)
+                    .compose(resources, icon, packageItem.getTitle());
         }
         return icon;
     }
 
     public void addBitmapToMemoryCache(String key, Drawable bitmap) {
-        mMemoryCache.put(key, bitmap);
+        mMemoryCaches.get(SizeClass.DRAWER).put(key, bitmap);
     }
 
     public Iterator<String> keyIterator() {
-        return mMemoryCache.snapshot().keySet().iterator();
+        return mMemoryCaches.get(SizeClass.DRAWER).snapshot().keySet().iterator();
     }
 
     // remove all entries with this package name
     public void removeBitmapToMemoryCache(String packageName) {
-        Iterator<String> nextKey = keyIterator();
-        while (nextKey.hasNext()) {
-            String key = nextKey.next();
-            if (key.startsWith(packageName)) {
-                Drawable removed = mMemoryCache.remove(key);
-                if (removed != null) {
-                    if (DEBUG) Log.d(TAG, "removedFromCache = " + key);
+        mDiskCache.removePackage(packageName);
+        // keys start with the flattened component
+        final String prefix = packageName + "/";
+        for (LruCache<String, Drawable> cache : mMemoryCaches.values()) {
+            Iterator<String> nextKey = cache.snapshot().keySet().iterator();
+            while (nextKey.hasNext()) {
+                String key = nextKey.next();
+                if (key.startsWith(prefix)) {
+                    Drawable removed = cache.remove(key);
+                    if (removed != null) {
+                        if (DEBUG) Log.d(TAG, "removedFromCache = " + key);
+                    }
                 }
             }
         }
     }
 
     public Drawable getBitmapFromMemCache(String key) {
-        return mMemoryCache.get(key);
+        return mMemoryCaches.get(SizeClass.DRAWER).get(key);
     }
 }
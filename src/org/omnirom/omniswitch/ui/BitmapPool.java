@@ -0,0 +1,153 @@
+/*
+ *  Copyright (C) 2023 The OmniROM Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.omnirom.omniswitch.ui;
+
+import java.io.PrintWriter;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import android.graphics.Bitmap;
+import android.graphics.Color;
+import android.util.Log;
+
+/**
+ * Reusable ARGB_8888 bitmaps bucketed by size for the few recurring
+ * sizes of icons, labels and memory display.
+ *
+ * Only bitmaps handed out by get can be put back and only by an owner
+ * that knows nothing draws them anymore - a released bitmap is erased
+ * and reused for something else.
+ */
+public class BitmapPool {
+    private static final String TAG = "OmniSwitch:BitmapPool";
+    private static final boolean DEBUG = false;
+    private static final long MAX_BYTES = 4 * 1024 * 1024;
+
+    private static BitmapPool sInstance;
+    private final long mMaxBytes;
+    // (width << 32 | height) -> free bitmaps
+    private final Map<Long, ArrayDeque<Bitmap>> mBuckets = new HashMap<Long, ArrayDeque<Bitmap>>();
+    // everything handed out that may come back - weak so nobody has to
+    private final Map<Bitmap, Boolean> mIssued = new WeakHashMap<Bitmap, Boolean>();
+    private long mBytes;
+    private int mRequests;
+    private int mHits;
+    private int mReleased;
+    private int mDropped;
+
+    public static synchronized BitmapPool getInstance() {
+        if (sInstance == null) {
+            sInstance = new BitmapPool();
+        }
+        return sInstance;
+    }
+
+    private BitmapPool() {
+        mMaxBytes = Math.min(MAX_BYTES, Runtime.getRuntime().maxMemory() / 32);
+    }
+
+    /**
+     * Transparent mutable ARGB_8888 bitmap - reused if possible
+     */
+    public Bitmap get(int width, int height) {
+        Bitmap bitmap = null;
+        synchronized (this) {
+            mRequests++;
+            ArrayDeque<Bitmap> bucket = mBuckets.get(getKey(width, height));
+            if (bucket != null && !bucket.isEmpty()) {
+                bitmap = bucket.pop();
+                mBytes -= bitmap.getAllocationByteCount();
+                mHits++;
+            }
+        }
+        if (bitmap != null) {
+            bitmap.eraseColor(Color.TRANSPARENT);
+            bitmap.setHasAlpha(true);
+            bitmap.setPremultiplied(true);
+        } else {
+            bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        }
+        synchronized (this) {
+            mIssued.put(bitmap, Boolean.TRUE);
+        }
+        return bitmap;
+    }
+
+    /**
+     * Give back a bitmap from get that is not drawn anywhere anymore.
+     * Others are ignored so callers do not need to know where a bitmap
+     * came from.
+     */
+    public synchronized void put(Bitmap bitmap) {
+        if (bitmap == null || mIssued.remove(bitmap) == null) {
+            return;
+        }
+        final int bytes = bitmap.getAllocationByteCount();
+        if (bitmap.isRecycled() || !bitmap.isMutable()
+                || bitmap.getConfig() != Bitmap.Config.ARGB_8888
+                || mBytes + bytes > mMaxBytes) {
+            mDropped++;
+            return;
+        }
+        final long key = getKey(bitmap.getWidth(), bitmap.getHeight());
+        ArrayDeque<Bitmap> bucket = mBuckets.get(key);
+        if (bucket == null) {
+            bucket = new ArrayDeque<Bitmap>();
+            mBuckets.put(key, bucket);
+        }
+        bucket.push(bitmap);
+        mBytes += bytes;
+        mReleased++;
+        if (DEBUG) Log.d(TAG, "put " + bitmap.getWidth() + "x" + bitmap.getHeight() + " " + getStats());
+    }
+
+    public synchronized void clear() {
+        mBuckets.clear();
+        mBytes = 0;
+    }
+
+    /**
+     * Bytes of the free bitmaps
+     */
+    public synchronized long getBytes() {
+        return mBytes;
+    }
+
+    /**
+     * @return percent of get calls served from the pool
+     */
+    public synchronized int getHitRate() {
+        return mRequests == 0 ? 0 : mHits * 100 / mRequests;
+    }
+
+    public synchronized void dump(PrintWriter pw) {
+        pw.println("BitmapPool: " + getStats());
+    }
+
+    private String getStats() {
+        return "requests = " + mRequests + " hits = " + mHits + " (" + getHitRate() + "%)"
+                + " released = " + mReleased + " dropped = " + mDropped
+                + " buckets = " + mBuckets.size() + " bytes = " + mBytes + "/" + mMaxBytes;
+    }
+
+    private static long getKey(int width, int height) {
+        return ((long) width << 32) | (height & 0xffffffffL);
+    }
+}
@@ -93,8 +93,7 @@ public class BitmapUtils {
         canvas.setDrawFilter(new PaintFlagsDrawFilter(Paint.ANTI_ALIAS_FLAG,
                 Paint.FILTER_BITMAP_FLAG));
 
-        Bitmap bmResult = Bitmap.createBitmap(size + border, size + border,
-                Bitmap.Config.ARGB_8888);
+        Bitmap bmResult = BitmapPool.getInstance().get(size + border, size + border);
         canvas.setBitmap(bmResult);
         image.setBounds(border / 2, border / 2, size, size);
         image.draw(canvas);
@@ -118,7 +117,7 @@ public class BitmapUtils {
                 Paint.FILTER_BITMAP_FLAG));
         final int imageWidth = image.getIntrinsicWidth();
         final int imageHeight = image.getIntrinsicHeight();
-        final Bitmap b = Bitmap.createBitmap(imageWidth, imageHeight, Bitmap.Config.ARGB_8888);
+        final Bitmap b = BitmapPool.getInstance().get(imageWidth, imageHeight);
         canvas.setBitmap(b);
         image.setBounds(0, 0, imageWidth, imageHeight);
         image.draw(canvas);
@@ -132,12 +131,14 @@ public class BitmapUtils {
         int[] offsetXY = new int[2];
         Bitmap b2 = b.extractAlpha(shadowPaint, offsetXY);
 
-        Bitmap bmResult = Bitmap.createBitmap(b.getWidth(), b.getHeight(),
-                Bitmap.Config.ARGB_8888);
+        Bitmap bmResult = BitmapPool.getInstance().get(b.getWidth(), b.getHeight());
 
         canvas.setBitmap(bmResult);
         canvas.drawBitmap(b2, offsetXY[0], offsetXY[1], null);
         canvas.drawBitmap(b, 0, 0, null);
+        canvas.setBitmap(null);
+        // only needed for drawing the shadow
+        BitmapPool.getInstance().put(b);
 
         return new BitmapDrawable(resources, bmResult);
     }
@@ -146,7 +147,8 @@ public class BitmapUtils {
         return context.getResources().getDrawable(android.R.drawable.sym_def_app_icon);
     }
 
-    public static Drawable compose(Resources resources, Drawable icon, Context context, Drawable iconBack,
+    // icon pack drawables are shared and modified while drawing
+    public static synchronized Drawable compose(Resources resources, Drawable icon, Context context, Drawable iconBack,
             Drawable iconMask, Drawable iconUpon, float scale, int iconSize, float density) {
         int size = Math.round(iconSize * density);
         final Canvas canvas = new Canvas();
@@ -161,8 +163,7 @@ public class BitmapUtils {
             scale = 1.0f;
         }
 
-        Bitmap bitmap = Bitmap.createBitmap(width, height,
-                Bitmap.Config.ARGB_8888);
+        Bitmap bitmap = BitmapPool.getInstance().get(width, height);
         canvas.setBitmap(bitmap);
 
         Rect oldBounds = new Rect();
@@ -201,7 +202,7 @@ public class BitmapUtils {
         final int height = (int) (size * 2);
         canvas.setDrawFilter(new PaintFlagsDrawFilter(Paint.ANTI_ALIAS_FLAG,
                 Paint.FILTER_BITMAP_FLAG));
-        final Bitmap bmp = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        final Bitmap bmp = BitmapPool.getInstance().get(width, height);
         canvas.setBitmap(bmp);
 
         final TextPaint textPaint = new TextPaint(Paint.ANTI_ALIAS_FLAG);
@@ -240,8 +241,8 @@ public class BitmapUtils {
         canvas.setDrawFilter(new PaintFlagsDrawFilter(Paint.ANTI_ALIAS_FLAG,
                 Paint.FILTER_BITMAP_FLAG));
 
-        Bitmap bmResult = Bitmap.createBitmap(image.getIntrinsicWidth(), image.getIntrinsicHeight(),
-                Bitmap.Config.ARGB_8888);
+        Bitmap bmResult = BitmapPool.getInstance().get(image.getIntrinsicWidth(),
+                image.getIntrinsicHeight());
         canvas.setBitmap(bmResult);
         image.setBounds(0, 0, canvas.getWidth(), canvas.getHeight());
         image.draw(canvas);
@@ -22,6 +22,7 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.pm.ActivityInfo;
 import android.content.pm.ShortcutInfo;
+import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.Drawable;
 import android.graphics.drawable.LayerDrawable;
 import android.graphics.Rect;
@@ -198,10 +199,15 @@ public class ContextMenuUtils {
     }
 
     private static Drawable resizeShortcutIcon(Context context, Drawable icon, SwitchConfiguration configuration) {
+        BitmapDrawable flattened = null;
         if (icon instanceof LayerDrawable) {
-            icon = BitmapUtils.getBitmapDrawable(context.getResources(), icon);
+            flattened = BitmapUtils.getBitmapDrawable(context.getResources(), icon);
+            icon = flattened;
         }
         icon = BitmapUtils.resize(context.getResources(), icon, configuration.mShortcutIconSizeDp, 0, configuration.mDensity);
+        if (flattened != null) {
+            BitmapPool.getInstance().put(flattened.getBitmap());
+        }
         return icon;
     }
 }
@@ -0,0 +1,255 @@
+/*
+ *  Copyright (C) 2023 The OmniROM Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.omnirom.omniswitch.ui;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.omnirom.omniswitch.SettingsActivity;
+import org.omnirom.omniswitch.SwitchConfiguration;
+
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+import android.graphics.Bitmap;
+import android.preference.PreferenceManager;
+import android.util.Log;
+
+/**
+ * Second level for the icon cache that survives service restarts.
+ * Icons are stored as raw ARGB_8888 pixels under the cache dir and
+ * read back with a memory mapped file. The file name contains everything
+ * that changes how an icon is rendered so stale files are never used.
+ */
+class DiskIconCache {
+    private static final String TAG = "OmniSwitch:DiskIconCache";
+    private static final boolean DEBUG = false;
+    private static final String DIR_NAME = "icons";
+    private static final int MAGIC = 0x4f534943; // OSIC
+    private static final int HEADER_SIZE = 12;
+    private static final long MAX_DISK_BYTES = 32 * 1024 * 1024;
+    // never part of a package name so the prefix of one package
+    // cannot match the files of another
+    private static final char KEY_SEPARATOR = '|';
+
+    private final Context mContext;
+    private final File mDir;
+    private final ExecutorService mWriter = Executors.newSingleThreadExecutor();
+    // packageName -> lastUpdateTime
+    private final Map<String, Long> mUpdateTimes = new HashMap<String, Long>();
+
+    DiskIconCache(Context context) {
+        mContext = context;
+        mDir = new File(context.getCacheDir(), DIR_NAME);
+        mWriter.execute(new Runnable() {
+            @Override
+            public void run() {
+                trim();
+            }
+        });
+    }
+
+    /**
+     * @return null if the package is not known
+     */
+    String getKey(ComponentName component, SwitchConfiguration configuration) {
+        final String packageName = component.getPackageName();
+        final long updateTime = getLastUpdateTime(packageName);
+        if (updateTime == 0) {
+            return null;
+        }
+        final String iconPack = IconPackHelper.getInstance(mContext).getLoadedIconPackName();
+        final String iconShape = PreferenceManager.getDefaultSharedPreferences(mContext)
+                .getString(SettingsActivity.PREF_ICON_SHAPE, "");
+        StringBuilder key = new StringBuilder();
+        key.append(component.flattenToString())
+                .append('|').append(configuration.mIconSize)
+                .append('|').append(configuration.mDensityDpi)
+                .append('|').append(iconPack)
+                .append('|').append(iconPack.isEmpty() ? 0 : getLastUpdateTime(iconPack))
+                .append('|').append(iconShape)
+                .append('|').append(updateTime);
+        return packageName + KEY_SEPARATOR + digest(key.toString());
+    }
+
+    Bitmap get(String key) {
+        File file = new File(mDir, key);
+        if (!file.exists()) {
+            return null;
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+                FileChannel channel = raf.getChannel()) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.capacity() < HEADER_SIZE || buffer.getInt() != MAGIC) {
+                file.delete();
+                return null;
+            }
+            final int width = buffer.getInt();
+            final int height = buffer.getInt();
+            if (width <= 0 || height <= 0
+                    || buffer.remaining() != width * height * 4) {
+                file.delete();
+                return null;
+            }
+            Bitmap bitmap = BitmapPool.getInstance().get(width, height);
+            bitmap.copyPixelsFromBuffer(buffer.slice());
+            if (DEBUG) Log.d(TAG, "hit " + key);
+            return bitmap;
+        } catch (IOException | RuntimeException e) {
+            Log.w(TAG, "failed to read " + key, e);
+            file.delete();
+        }
+        return null;
+    }
+
+    void put(final String key, final Bitmap bitmap) {
+        mWriter.execute(new Runnable() {
+            @Override
+            public void run() {
+                write(key, bitmap);
+            }
+        });
+    }
+
+    void removePackage(final String packageName) {
+        synchronized (mUpdateTimes) {
+            mUpdateTimes.remove(packageName);
+        }
+        mWriter.execute(new Runnable() {
+            @Override
+            public void run() {
+                File[] files = mDir.listFiles();
+                if (files == null) {
+                    return;
+                }
+                final String prefix = packageName + KEY_SEPARATOR;
+                for (File file : files) {
+                    if (file.getName().startsWith(prefix)) {
+                        file.delete();
+                    }
+                }
+            }
+        });
+    }
+
+    private void write(String key, Bitmap bitmap) {
+        if (!mDir.exists() && !mDir.mkdirs()) {
+            return;
+        }
+        if (bitmap.getConfig() != Bitmap.Config.ARGB_8888) {
+            bitmap = bitmap.copy(Bitmap.Config.ARGB_8888, false);
+            if (bitmap == null) {
+                return;
+            }
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + bitmap.getByteCount());
+        buffer.putInt(MAGIC);
+        buffer.putInt(bitmap.getWidth());
+        buffer.putInt(bitmap.getHeight());
+        bitmap.copyPixelsToBuffer(buffer);
+
+        File tmp = new File(mDir, key + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(tmp)) {
+            out.write(buffer.array());
+        } catch (IOException e) {
+            Log.w(TAG, "failed to write " + key, e);
+            tmp.delete();
+            return;
+        }
+        if (!tmp.renameTo(new File(mDir, key))) {
+            tmp.delete();
+        }
+        if (DEBUG) Log.d(TAG, "stored " + key);
+    }
+
+    // drop the oldest files if we are over budget
+    private void trim() {
+        File[] files = mDir.listFiles();
+        if (files == null) {
+            return;
+        }
+        long total = 0;
+        for (File file : files) {
+            total += file.length();
+        }
+        if (total <= MAX_DISK_BYTES) {
+            return;
+        }
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File lhs, File rhs) {
+                return Long.compare(lhs.lastModified(), rhs.lastModified());
+            }
+        });
+        for (File file : files) {
+            if (total <= MAX_DISK_BYTES / 2) {
+                break;
+            }
+            total -= file.length();
+            file.delete();
+        }
+        if (DEBUG) Log.d(TAG, "trimmed to " + total);
+    }
+
+    private long getLastUpdateTime(String packageName) {
+        synchronized (mUpdateTimes) {
+            Long time = mUpdateTimes.get(packageName);
+            if (time != null) {
+                return time;
+            }
+        }
+        long time = 0;
+        try {
+            PackageInfo info = mContext.getPackageManager().getPackageInfo(packageName, 0);
+            time = info.lastUpdateTime;
+        } catch (PackageManager.NameNotFoundException e) {
+        }
+        synchronized (mUpdateTimes) {
+            mUpdateTimes.put(packageName, time);
+        }
+        return time;
+    }
+
+    private static String digest(String key) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-1");
+            byte[] hash = md.digest(key.getBytes());
+            StringBuilder sb = new StringBuilder();
+            for (byte b : hash) {
+                sb.append(String.format("%02x", b));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            return Integer.toHexString(key.hashCode());
+        }
+    }
+}
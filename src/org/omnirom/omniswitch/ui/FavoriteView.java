@@ -54,7 +54,7 @@ import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 
-public class FavoriteView extends GridView {
+public class FavoriteView extends GridView implements PackageManager.OnPackageChangeListener {
     private static final String TAG = "FavoriteView";
     private static final boolean DEBUG = false;
 
@@ -64,6 +64,7 @@ public class FavoriteView extends GridView {
     protected List<String> mFavoriteList;
     private SwitchManager mRecentsManager;
     protected Typeface mLabelFont;
+    private int mPackageGeneration;
 
     public class FavoriteListAdapter extends ArrayAdapter<String> {
 
@@ -126,6 +127,40 @@ public class FavoriteView extends GridView {
         });
     }
 
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        PackageManager.getInstance(mContext).addOnPackageChangeListener(this);
+        if (mPackageGeneration != PackageManager.getInstance(mContext).getGeneration()) {
+            // missed changes while detached
+            mPackageGeneration = PackageManager.getInstance(mContext).getGeneration();
+            mFavoriteListAdapter.notifyDataSetChanged();
+        }
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        PackageManager.getInstance(mContext).removeOnPackageChangeListener(this);
+    }
+
+    @Override
+    public void onPackageChanged(PackageManager.PackageChange change) {
+        mPackageGeneration = PackageManager.getInstance(mContext).getGeneration();
+        if (containsFavorite(change.getAdded()) || containsFavorite(change.getRemoved())) {
+            mFavoriteListAdapter.notifyDataSetChanged();
+        }
+    }
+
+    private boolean containsFavorite(List<PackageManager.PackageItem> items) {
+        for (PackageManager.PackageItem item : items) {
+            if (mFavoriteList.contains(item.getIntent())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     public void setTransparentMode(boolean value) {
         mTransparent = value;
     }
@@ -172,9 +207,6 @@ public class FavoriteView extends GridView {
         if (key != null && Utils.isPrefKeyForForceUpdate(key)) {
             setAdapter(mFavoriteListAdapter);
         }
-        if (key != null && key.equals(PackageManager.PACKAGES_UPDATED_TAG)) {
-            mFavoriteListAdapter.notifyDataSetChanged();
-        }
         updateLayout();
     }
 
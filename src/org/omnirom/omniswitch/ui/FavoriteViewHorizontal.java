@@ -55,7 +55,7 @@ import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 
-public class FavoriteViewHorizontal extends HorizontalListView {
+public class FavoriteViewHorizontal extends HorizontalListView implements PackageManager.OnPackageChangeListener {
     private static final String TAG = "FavoriteViewHorizontal";
     private static final boolean DEBUG = false;
 
@@ -65,6 +65,7 @@ public class FavoriteViewHorizontal extends HorizontalListView {
     protected List<String> mFavoriteList;
     private SwitchManager mRecentsManager;
     private Typeface mLabelFont;
+    private int mPackageGeneration;
 
     public class FavoriteListAdapter extends ArrayAdapter<String> {
 
@@ -125,6 +126,40 @@ public class FavoriteViewHorizontal extends HorizontalListView {
         });
     }
 
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        PackageManager.getInstance(mContext).addOnPackageChangeListener(this);
+        if (mPackageGeneration != PackageManager.getInstance(mContext).getGeneration()) {
+            // missed changes while detached
+            mPackageGeneration = PackageManager.getInstance(mContext).getGeneration();
+            mFavoriteListAdapter.notifyDataSetChanged();
+        }
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        PackageManager.getInstance(mContext).removeOnPackageChangeListener(this);
+    }
+
+    @Override
+    public void onPackageChanged(PackageManager.PackageChange change) {
+        mPackageGeneration = PackageManager.getInstance(mContext).getGeneration();
+        if (containsFavorite(change.getAdded()) || containsFavorite(change.getRemoved())) {
+            mFavoriteListAdapter.notifyDataSetChanged();
+        }
+    }
+
+    private boolean containsFavorite(List<PackageManager.PackageItem> items) {
+        for (PackageManager.PackageItem item : items) {
+            if (mFavoriteList.contains(item.getIntent())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     public void setTransparentMode(boolean value) {
         mTransparent = value;
     }
@@ -166,9 +201,6 @@ public class FavoriteViewHorizontal extends HorizontalListView {
         if (key != null && Utils.isPrefKeyForForceUpdate(key)) {
             setAdapter(mFavoriteListAdapter);
         }
-        if (key != null && key.equals(PackageManager.PACKAGES_UPDATED_TAG)) {
-            mFavoriteListAdapter.notifyDataSetChanged();
-        }
     }
 
     public void init() {
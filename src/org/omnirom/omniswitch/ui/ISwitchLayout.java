@@ -17,6 +17,9 @@
  */
 package org.omnirom.omniswitch.ui;
 
+import org.omnirom.omniswitch.TaskChangeSet;
+import org.omnirom.omniswitch.TaskDescription;
+
 import android.content.SharedPreferences;
 
 public interface ISwitchLayout {
@@ -35,7 +38,7 @@ public interface ISwitchLayout {
 
     void show();
 
-    void update();
+    void update(TaskChangeSet changes);
 
     void refresh();
 
@@ -45,7 +48,10 @@ public interface ISwitchLayout {
 
     void slideLayout(float distanceX);
 
-    void finishSlideLayout();
+    /**
+     * @return true if the overlay will be opened
+     */
+    boolean finishSlideLayout();
 
     void openSlideLayout(boolean fromFling);
 
@@ -56,4 +62,9 @@ public interface ISwitchLayout {
     void resetRecentsState();
 
     void notifiyRecentsListChanged();
+
+    /**
+     * Fade out the tile of the task - endAction runs also if it is not visible
+     */
+    void animateTaskRemoved(TaskDescription ad, Runnable endAction);
 }
@@ -0,0 +1,178 @@
+/*
+ *  Copyright (C) 2023 The OmniROM Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.omnirom.omniswitch.ui;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.PaintFlagsDrawFilter;
+import android.graphics.PorterDuff;
+import android.graphics.PorterDuffXfermode;
+import android.graphics.Rect;
+import android.graphics.drawable.BitmapDrawable;
+import android.graphics.drawable.Drawable;
+import android.os.SystemClock;
+import android.util.Log;
+
+/**
+ * Icon pack composition prepared for one icon size. Mask, backs and
+ * upon are rendered once at the target size so composing an icon is
+ * only the icon draw and up to three bitmap draws with shared paints.
+ * Produces the same result as BitmapUtils.compose.
+ */
+public class IconCompositor {
+    private static final String TAG = "OmniSwitch:IconCompositor";
+    private static final boolean DEBUG = false;
+
+    private final int mSize;
+    private final float mScale;
+    // alpha only - DST_OUT just needs coverage
+    private final Bitmap mMask;
+    private final List<Bitmap> mBacks = new ArrayList<Bitmap>();
+    private final Bitmap mUpon;
+    private final Canvas mCanvas = new Canvas();
+    private final Rect mIconBounds = new Rect();
+    private final Rect mOldBounds = new Rect();
+    private final Paint mMaskPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    private final Paint mBackPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    private final Paint mUponPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    private int mComposed;
+    private long mComposeTime;
+
+    /**
+     * @param iconSize in dp as passed to BitmapUtils.compose
+     */
+    IconCompositor(List<Drawable> iconBacks, Drawable iconMask, Drawable iconUpon,
+            float scale, int iconSize, float density) {
+        mSize = Math.round(iconSize * density);
+        mIconBounds.set(0, 0, mSize, mSize);
+        mCanvas.setDrawFilter(new PaintFlagsDrawFilter(Paint.ANTI_ALIAS_FLAG,
+                Paint.FILTER_BITMAP_FLAG));
+        if (iconMask != null) {
+            Bitmap mask = render(iconMask);
+            mMask = mask.extractAlpha();
+            mask.recycle();
+        } else {
+            mMask = null;
+        }
+        for (Drawable back : iconBacks) {
+            mBacks.add(render(back));
+        }
+        mUpon = iconUpon != null ? render(iconUpon) : null;
+        mScale = (mMask == null && mBacks.isEmpty() && mUpon == null) ? 1.0f : scale;
+        mMaskPaint.setXfermode(new PorterDuffXfermode(PorterDuff.Mode.DST_OUT));
+        mBackPaint.setXfermode(new PorterDuffXfermode(PorterDuff.Mode.DST_OVER));
+    }
+
+    /**
+     * @param tag selects the icon back if the pack has several
+     */
+    public synchronized Drawable compose(Resources resources, Drawable icon, CharSequence tag) {
+        final long start = SystemClock.elapsedRealtimeNanos();
+        Bitmap bitmap = BitmapPool.getInstance().get(mSize, mSize);
+        mCanvas.setBitmap(bitmap);
+
+        mOldBounds.set(icon.getBounds());
+        icon.setBounds(mIconBounds);
+        mCanvas.save();
+        mCanvas.scale(mScale, mScale, mSize / 2, mSize / 2);
+        icon.draw(mCanvas);
+        mCanvas.restore();
+        icon.setBounds(mOldBounds);
+        if (mMask != null) {
+            mCanvas.drawBitmap(mMask, 0, 0, mMaskPaint);
+        }
+        final Bitmap back = getBackFor(tag);
+        if (back != null) {
+            mCanvas.drawBitmap(back, 0, 0, mBackPaint);
+        }
+        if (mUpon != null) {
+            mCanvas.drawBitmap(mUpon, 0, 0, mUponPaint);
+        }
+        mCanvas.setBitmap(null);
+
+        final long time = SystemClock.elapsedRealtimeNanos() - start;
+        mComposeTime += time;
+        mComposed++;
+        if (DEBUG) Log.d(TAG, "composed " + mSize + "px in " + (time / 1000) + "us");
+        return new BitmapDrawable(resources, bitmap);
+    }
+
+    public synchronized void dump(PrintWriter pw) {
+        pw.println("IconCompositor " + mSize + "px: composed = " + mComposed + " avg "
+                + (mComposed != 0 ? mComposeTime / mComposed / 1000 : 0) + "us");
+    }
+
+    /**
+     * Time legacy and prepared composition of the same icon
+     * @return avg time per icon in us for legacy and compositor
+     */
+    public static long[] benchmark(Resources resources, Drawable icon, List<Drawable> iconBacks,
+            Drawable iconMask, Drawable iconUpon, float scale, int iconSize, float density,
+            int iterations) {
+        final Drawable back = iconBacks.isEmpty() ? null : iconBacks.get(0);
+        long start = SystemClock.elapsedRealtimeNanos();
+        for (int i = 0; i < iterations; i++) {
+            BitmapUtils.compose(resources, icon, null, back, iconMask, iconUpon, scale,
+                    iconSize, density);
+        }
+        final long legacy = (SystemClock.elapsedRealtimeNanos() - start) / iterations / 1000;
+
+        start = SystemClock.elapsedRealtimeNanos();
+        IconCompositor compositor = new IconCompositor(iconBacks, iconMask, iconUpon, scale,
+                iconSize, density);
+        for (int i = 0; i < iterations; i++) {
+            compositor.compose(resources, icon, "");
+        }
+        final long prepared = (SystemClock.elapsedRealtimeNanos() - start) / iterations / 1000;
+        if (DEBUG) Log.d(TAG, "benchmark legacy = " + legacy + "us compositor = " + prepared + "us");
+        return new long[] { legacy, prepared };
+    }
+
+    // same pick as IconPackHelper.getIconBackFor
+    private Bitmap getBackFor(CharSequence tag) {
+        if (mBacks.isEmpty()) {
+            return null;
+        }
+        if (mBacks.size() == 1 || tag == null) {
+            return mBacks.get(0);
+        }
+        return mBacks.get((tag.hashCode() & 0x7fffffff) % mBacks.size());
+    }
+
+    private Bitmap render(Drawable d) {
+        Bitmap bitmap = Bitmap.createBitmap(mSize, mSize, Bitmap.Config.ARGB_8888);
+        mCanvas.setBitmap(bitmap);
+        if (d instanceof BitmapDrawable) {
+            // its paint may carry a xfermode from BitmapUtils.compose
+            mCanvas.drawBitmap(((BitmapDrawable) d).getBitmap(), null, mIconBounds, mUponPaint);
+        } else {
+            mOldBounds.set(d.getBounds());
+            d.setBounds(mIconBounds);
+            d.draw(mCanvas);
+            d.setBounds(mOldBounds);
+        }
+        mCanvas.setBitmap(null);
+        return bitmap;
+    }
+}
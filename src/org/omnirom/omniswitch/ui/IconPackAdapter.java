@@ -0,0 +1,126 @@
+/*
+ *  Copyright (C) 2023 The OmniROM Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.omnirom.omniswitch.ui;
+
+import java.util.List;
+
+import org.omnirom.omniswitch.R;
+
+import android.content.Context;
+import android.graphics.drawable.Drawable;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.BaseAdapter;
+import android.widget.ImageView;
+import android.widget.RadioButton;
+import android.widget.TextView;
+
+/**
+ * Icon packs of the IconPackCatalog with the default entry on top.
+ * Icons and previews show up as the catalog loads them.
+ * Call stopListening when the picker goes away.
+ */
+class IconPackAdapter extends BaseAdapter implements IconPackCatalog.OnChangeListener {
+    private static final int[] PREVIEW_IDS = new int[] {
+        R.id.preview_icon_1, R.id.preview_icon_2, R.id.preview_icon_3
+    };
+
+    private final IconPackCatalog mCatalog;
+    private final LayoutInflater mLayoutInflater;
+    private final String mDefaultLabel;
+    private final Drawable mDefaultIcon;
+    private final String mCurrentIconPack;
+    private List<IconPackCatalog.Entry> mEntries;
+
+    IconPackAdapter(Context context, String defaultLabel, String currentIconPack) {
+        mCatalog = IconPackCatalog.getInstance(context);
+        mLayoutInflater = LayoutInflater.from(context);
+        mDefaultLabel = defaultLabel;
+        mDefaultIcon = context.getResources().getDrawable(R.drawable.ic_launcher);
+        mCurrentIconPack = currentIconPack;
+        mEntries = mCatalog.getEntries();
+        mCatalog.addOnChangeListener(this);
+    }
+
+    void stopListening() {
+        mCatalog.removeOnChangeListener(this);
+    }
+
+    @Override
+    public void onIconPacksChanged() {
+        mEntries = mCatalog.getEntries();
+        notifyDataSetChanged();
+    }
+
+    @Override
+    public int getCount() {
+        return mEntries.size() + 1;
+    }
+
+    /**
+     * @return package name - empty for the default icons
+     */
+    @Override
+    public String getItem(int position) {
+        return position == 0 ? "" : mEntries.get(position - 1).getPackageName();
+    }
+
+    public CharSequence getLabel(int position) {
+        return position == 0 ? mDefaultLabel : mEntries.get(position - 1).getLabel();
+    }
+
+    /**
+     * @return null while the pack icon is loading
+     */
+    public Drawable getIcon(int position) {
+        return position == 0 ? mDefaultIcon : mCatalog.getIcon(mEntries.get(position - 1));
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return 0;
+    }
+
+    public boolean isCurrentIconPack(int position) {
+        return getItem(position).equals(mCurrentIconPack);
+    }
+
+    @Override
+    public View getView(int position, View convertView, ViewGroup parent) {
+        if (convertView == null) {
+            convertView = mLayoutInflater.inflate(R.layout.iconpack_view, null);
+        }
+        TextView txtView = (TextView) convertView.findViewById(R.id.title);
+        txtView.setText(getLabel(position));
+        ImageView imgView = (ImageView) convertView.findViewById(R.id.icon);
+        imgView.setImageDrawable(getIcon(position));
+        RadioButton radioButton = (RadioButton) convertView.findViewById(R.id.radio);
+        radioButton.setChecked(isCurrentIconPack(position));
+
+        final List<Drawable> preview = position == 0 ? null
+                : mCatalog.getPreview(mEntries.get(position - 1));
+        View previewView = convertView.findViewById(R.id.preview);
+        previewView.setVisibility(preview != null && preview.size() != 0 ? View.VISIBLE : View.GONE);
+        for (int i = 0; i < PREVIEW_IDS.length; i++) {
+            ImageView previewIcon = (ImageView) convertView.findViewById(PREVIEW_IDS[i]);
+            previewIcon.setImageDrawable(preview != null && i < preview.size() ? preview.get(i) : null);
+        }
+        return convertView;
+    }
+}
@@ -0,0 +1,434 @@
+/*
+ *  Copyright (C) 2023 The OmniROM Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.omnirom.omniswitch.ui;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.content.pm.PackageManager;
+import android.content.pm.ResolveInfo;
+import android.content.res.Resources;
+import android.content.res.XmlResourceParser;
+import android.graphics.drawable.Drawable;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.text.TextUtils;
+import android.util.Log;
+
+/**
+ * Installed icon packs for the pickers. Labels are kept in memory and on
+ * disk so a picker can show the list at once, everything else is done
+ * on a background thread: the requery of the installed packs, the pack
+ * icons and a preview of a few installed apps as the pack draws them.
+ * Package changes only requery the changed package.
+ *
+ * file: MAGIC, VERSION, count, (packageName, label, lastUpdateTime)*
+ */
+public class IconPackCatalog {
+    private static final String TAG = "OmniSwitch:IconPackCatalog";
+    private static final boolean DEBUG = false;
+    private static final String FILENAME = "iconpacks.bin";
+    private static final int MAGIC = 0x4f53504c; // OSPL
+    private static final int VERSION = 1;
+    public static final int PREVIEW_COUNT = 3;
+
+    public interface OnChangeListener {
+        /**
+         * list, icons or previews changed - called on the main thread
+         */
+        public void onIconPacksChanged();
+    }
+
+    public static class Entry {
+        final String mPackageName;
+        final String mLabel;
+        final long mLastUpdateTime;
+        // main thread only - null until loaded
+        Drawable mIcon;
+        List<Drawable> mPreview;
+        boolean mIconRequested;
+        boolean mPreviewRequested;
+
+        Entry(String packageName, String label, long lastUpdateTime) {
+            mPackageName = packageName;
+            mLabel = label;
+            mLastUpdateTime = lastUpdateTime;
+        }
+
+        public String getPackageName() {
+            return mPackageName;
+        }
+
+        public String getLabel() {
+            return mLabel;
+        }
+    }
+
+    private static IconPackCatalog sInstance;
+    private final Context mContext;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final ExecutorService mExecutor = Executors.newSingleThreadExecutor();
+    // previews parse whole appfilters - icons must not wait behind them
+    private final ExecutorService mPreviewExecutor = Executors.newSingleThreadExecutor(
+            new ThreadFactory() {
+                @Override
+                public Thread newThread(final Runnable r) {
+                    return new Thread(new Runnable() {
+                        @Override
+                        public void run() {
+                            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                            r.run();
+                        }
+                    }, "OmniSwitch:IconPackPreview");
+                }
+            });
+    private final List<OnChangeListener> mListeners = new CopyOnWriteArrayList<OnChangeListener>();
+    // packageName -> entry
+    private final Map<String, Entry> mEntries = new HashMap<String, Entry>();
+    private boolean mStarted;
+
+    public static IconPackCatalog getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new IconPackCatalog(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private IconPackCatalog(Context context) {
+        mContext = context;
+    }
+
+    /**
+     * Known packs sorted by label. The first call starts loading and
+     * the listeners hear about the result.
+     */
+    public List<Entry> getEntries() {
+        if (!mStarted) {
+            mStarted = true;
+            mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (read()) {
+                        notifyChanged();
+                    }
+                    // the stored list may be from before packs were changed
+                    publish(query(null), null);
+                }
+            });
+        }
+        List<Entry> entries;
+        synchronized (mEntries) {
+            entries = new ArrayList<Entry>(mEntries.values());
+        }
+        Collections.sort(entries, new Comparator<Entry>() {
+            @Override
+            public int compare(Entry lhs, Entry rhs) {
+                return lhs.mLabel.compareToIgnoreCase(rhs.mLabel);
+            }
+        });
+        return entries;
+    }
+
+    /**
+     * Requery a single package if the list is in use
+     */
+    public void updatePackage(final String packageName, final boolean removed) {
+        if (!mStarted) {
+            return;
+        }
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                publish(removed ? new HashMap<String, Entry>() : query(packageName), packageName);
+            }
+        });
+    }
+
+    public void addOnChangeListener(OnChangeListener listener) {
+        mListeners.add(listener);
+    }
+
+    public void removeOnChangeListener(OnChangeListener listener) {
+        mListeners.remove(listener);
+    }
+
+    /**
+     * Pack icon or null if it is not loaded yet - main thread only
+     */
+    public Drawable getIcon(final Entry entry) {
+        if (entry.mIcon == null && !entry.mIconRequested) {
+            entry.mIconRequested = true;
+            mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    Drawable icon = null;
+                    try {
+                        icon = mContext.getPackageManager().getApplicationIcon(entry.mPackageName);
+                    } catch (PackageManager.NameNotFoundException e) {
+                    }
+                    final Drawable loaded = icon;
+                    if (loaded != null) {
+                        mHandler.post(new Runnable() {
+                            @Override
+                            public void run() {
+                                entry.mIcon = loaded;
+                                notifyChanged();
+                            }
+                        });
+                    }
+                }
+            });
+        }
+        return entry.mIcon;
+    }
+
+    /**
+     * Up to PREVIEW_COUNT installed apps drawn by the pack or null if
+     * not rendered yet - main thread only
+     */
+    public List<Drawable> getPreview(final Entry entry) {
+        if (entry.mPreview == null && !entry.mPreviewRequested) {
+            entry.mPreviewRequested = true;
+            mPreviewExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    final List<Drawable> preview = renderPreview(entry.mPackageName);
+                    mHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            entry.mPreview = preview;
+                            notifyChanged();
+                        }
+                    });
+                }
+            });
+        }
+        return entry.mPreview;
+    }
+
+    private void notifyChanged() {
+        if (Looper.myLooper() != Looper.getMainLooper()) {
+            mHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    notifyChanged();
+                }
+            });
+            return;
+        }
+        for (OnChangeListener listener : mListeners) {
+            listener.onIconPacksChanged();
+        }
+    }
+
+    /**
+     * @param packageName if not null only this package is replaced
+     */
+    private void publish(Map<String, Entry> found, String packageName) {
+        boolean changed = false;
+        synchronized (mEntries) {
+            if (packageName == null) {
+                changed = mEntries.keySet().retainAll(found.keySet());
+            } else if (!found.containsKey(packageName)) {
+                changed = mEntries.remove(packageName) != null;
+            }
+            for (Entry entry : found.values()) {
+                Entry old = mEntries.get(entry.mPackageName);
+                // keep loaded icon and preview of unchanged packs
+                if (old != null && old.mLastUpdateTime == entry.mLastUpdateTime
+                        && old.mLabel.equals(entry.mLabel)) {
+                    continue;
+                }
+                mEntries.put(entry.mPackageName, entry);
+                changed = true;
+            }
+        }
+        if (DEBUG) Log.d(TAG, "publish " + (packageName != null ? packageName : "all")
+                + " changed = " + changed);
+        if (changed) {
+            write();
+            notifyChanged();
+        }
+    }
+
+    private Map<String, Entry> query(String packageName) {
+        final PackageManager pm = mContext.getPackageManager();
+        final Map<String, Entry> found = new HashMap<String, Entry>();
+        for (String action : IconPackHelper.sSupportedActions) {
+            Intent i = new Intent(action);
+            i.setPackage(packageName);
+            addAll(pm, pm.queryIntentActivities(i, 0), found);
+        }
+        for (String category : IconPackHelper.sSupportedCategories) {
+            Intent i = new Intent(Intent.ACTION_MAIN);
+            i.addCategory(category);
+            i.setPackage(packageName);
+            addAll(pm, pm.queryIntentActivities(i, 0), found);
+        }
+        return found;
+    }
+
+    private void addAll(PackageManager pm, List<ResolveInfo> infos, Map<String, Entry> found) {
+        for (ResolveInfo r : infos) {
+            final String packageName = r.activityInfo.packageName;
+            if (found.containsKey(packageName)) {
+                continue;
+            }
+            long lastUpdateTime = 0;
+            try {
+                lastUpdateTime = pm.getPackageInfo(packageName, 0).lastUpdateTime;
+            } catch (PackageManager.NameNotFoundException e) {
+                continue;
+            }
+            found.put(packageName, new Entry(packageName, r.loadLabel(pm).toString(),
+                    lastUpdateTime));
+        }
+    }
+
+    // first installed launcher activities the pack has an icon for
+    private List<Drawable> renderPreview(String packageName) {
+        final List<Drawable> preview = new ArrayList<Drawable>(PREVIEW_COUNT);
+        final Set<String> installed = new HashSet<String>();
+        for (org.omnirom.omniswitch.PackageManager.PackageItem item
+                : org.omnirom.omniswitch.PackageManager.getInstance(mContext).getPackageList()) {
+            installed.add(item.getIntentRaw().getComponent().flattenToString());
+        }
+        XmlResourceParser parser = null;
+        try {
+            final Resources res = mContext.getPackageManager().getResourcesForApplication(packageName);
+            final int resourceId = res.getIdentifier("appfilter", "xml", packageName);
+            if (resourceId == 0) {
+                return preview;
+            }
+            // no index is built for that - stop at the first matches
+            parser = res.getXml(resourceId);
+            while (preview.size() < PREVIEW_COUNT
+                    && parser.next() != XmlPullParser.END_DOCUMENT) {
+                if (parser.getEventType() != XmlPullParser.START_TAG
+                        || !parser.getName().equals("item")) {
+                    continue;
+                }
+                String component = parser.getAttributeValue(null, "component");
+                final String drawable = parser.getAttributeValue(null, "drawable");
+                if (TextUtils.isEmpty(component) || TextUtils.isEmpty(drawable)
+                        || !component.startsWith("ComponentInfo{") || !component.endsWith("}")) {
+                    continue;
+                }
+                component = component.substring(14, component.length() - 1);
+                final ComponentName name = ComponentName.unflattenFromString(component);
+                if (name == null || !installed.remove(name.flattenToString())) {
+                    continue;
+                }
+                final int id = res.getIdentifier(drawable, "drawable", packageName);
+                if (id != 0) {
+                    preview.add(res.getDrawable(id, null));
+                }
+            }
+        } catch (PackageManager.NameNotFoundException | XmlPullParserException | IOException
+                | Resources.NotFoundException e) {
+            Log.w(TAG, "preview of " + packageName + " failed", e);
+        } finally {
+            if (parser != null) {
+                parser.close();
+            }
+        }
+        return preview;
+    }
+
+    private File getFile() {
+        return new File(mContext.getCacheDir(), FILENAME);
+    }
+
+    private boolean read() {
+        final File file = getFile();
+        if (!file.exists()) {
+            return false;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("unknown format");
+            }
+            final int count = in.readInt();
+            final List<Entry> entries = new ArrayList<Entry>(count);
+            for (int i = 0; i < count; i++) {
+                entries.add(new Entry(in.readUTF(), in.readUTF(), in.readLong()));
+            }
+            synchronized (mEntries) {
+                for (Entry entry : entries) {
+                    mEntries.put(entry.mPackageName, entry);
+                }
+            }
+            if (DEBUG) Log.d(TAG, "read " + count + " packs");
+            return true;
+        } catch (IOException e) {
+            Log.e(TAG, "read", e);
+            file.delete();
+        }
+        return false;
+    }
+
+    private void write() {
+        File tmp = new File(mContext.getCacheDir(), FILENAME + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(tmp)))) {
+            synchronized (mEntries) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(mEntries.size());
+                for (Entry entry : mEntries.values()) {
+                    out.writeUTF(entry.mPackageName);
+                    out.writeUTF(entry.mLabel);
+                    out.writeLong(entry.mLastUpdateTime);
+                }
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "write", e);
+            tmp.delete();
+            return;
+        }
+        if (!tmp.renameTo(getFile())) {
+            tmp.delete();
+        }
+    }
+}
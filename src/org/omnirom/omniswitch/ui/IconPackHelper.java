@@ -1,11 +1,9 @@
 package org.omnirom.omniswitch.ui;
 
 import java.io.IOException;
-import java.io.InputStream;
+import java.io.PrintWriter;
 import java.lang.reflect.Field;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.List;
@@ -22,10 +20,8 @@ import android.content.ComponentName;
 import android.content.Context;
 import android.content.DialogInterface;
 import android.content.DialogInterface.OnDismissListener;
-import android.content.Intent;
 import android.content.SharedPreferences;
 import android.content.pm.ActivityInfo;
-import android.content.pm.ResolveInfo;
 import android.content.res.Resources;
 import android.content.res.XmlResourceParser;
 import android.graphics.drawable.Drawable;
@@ -33,13 +29,8 @@ import android.preference.PreferenceManager;
 import android.text.TextUtils;
 import android.view.LayoutInflater;
 import android.view.View;
-import android.view.ViewGroup;
-import android.widget.BaseAdapter;
 import android.widget.AdapterView;
 import android.widget.AdapterView.OnItemClickListener;
-import android.widget.ImageView;
-import android.widget.RadioButton;
-import android.widget.TextView;
 import android.widget.Toast;
 import android.widget.ListView;
 import android.util.Log;
@@ -52,6 +43,7 @@ public class IconPackHelper implements DialogInterface.OnDismissListener {
 
     public final static String[] sSupportedActions = new String[] {
         "org.adw.launcher.THEMES",
+        "org.adw.launcher.icons.ACTION_PICK_ICON",
         "com.gau.go.launcherex.theme",
         "com.dlto.atom.launcher.THEME",
         "com.novalauncher.THEME"
@@ -64,7 +56,9 @@ public class IconPackHelper implements DialogInterface.OnDismissListener {
     };
 
     // Holds package/class -> drawable
-    private Map<String, String> mIconPackResources;
+    private IconPackIndex mIconPackIndex;
+    // lookup key -> resolved resource id
+    private IconPackIdCache mIconPackIds;
     private Context mContext;
     private String mLoadedIconPackName;
     private Resources mLoadedIconPackResource;
@@ -74,8 +68,10 @@ public class IconPackHelper implements DialogInterface.OnDismissListener {
     private float mIconScale;
     private String mCurrentIconPack = "";
     private boolean mLoading;
+    // size in px -> prepared composition - dropped with the pack
+    private final Map<Integer, IconCompositor> mCompositors = new HashMap<Integer, IconCompositor>();
     private AlertDialog mDialog;
-    private ListView mListView;
+    private IconPackAdapter mAdapter;
 
     private static IconPackHelper sInstance;
 
@@ -120,8 +116,37 @@ public class IconPackHelper implements DialogInterface.OnDismissListener {
         return mIconScale;
     }
 
+    /**
+     * Composition of the loaded pack for iconSize in dp
+     */
+    public IconCompositor getCompositor(int iconSize, float density) {
+        final int size = Math.round(iconSize * density);
+        synchronized (mCompositors) {
+            IconCompositor compositor = mCompositors.get(size);
+            if (compositor == null) {
+                compositor = new IconCompositor(mIconBackList, mIconMask, mIconUpon, mIconScale,
+                        iconSize, density);
+                mCompositors.put(size, compositor);
+            }
+            return compositor;
+        }
+    }
+
+    public void dumpCompositors(PrintWriter pw) {
+        synchronized (mCompositors) {
+            for (IconCompositor compositor : mCompositors.values()) {
+                compositor.dump(pw);
+            }
+        }
+    }
+
+    private void clearCompositors() {
+        synchronized (mCompositors) {
+            mCompositors.clear();
+        }
+    }
+
     private IconPackHelper() {
-        mIconPackResources = new HashMap<String, String>();
         mIconBackList = new ArrayList<Drawable>();
         mIconBackStrings = new ArrayList<String>();
     }
@@ -132,7 +157,7 @@ public class IconPackHelper implements DialogInterface.OnDismissListener {
 
     private Drawable getDrawableForName(String name) {
         if (isIconPackLoaded()) {
-            String item = mIconPackResources.get(name);
+            String item = mIconPackIndex.get(name);
             if (!TextUtils.isEmpty(item)) {
                 int id = getResourceIdForDrawable(item);
                 if (id != 0) {
@@ -153,31 +178,9 @@ public class IconPackHelper implements DialogInterface.OnDismissListener {
         return null;
     }
 
-    private Map<String, IconPackInfo> getSupportedPackages(Context context) {
-        Intent i = new Intent();
-        Map<String, IconPackInfo> packages = new HashMap<String, IconPackInfo>();
-        android.content.pm.PackageManager packageManager = context.getPackageManager();
-        for (String action : sSupportedActions) {
-            i.setAction(action);
-            for (ResolveInfo r : packageManager.queryIntentActivities(i, 0)) {
-                IconPackInfo info = new IconPackInfo(r, packageManager);
-                packages.put(r.activityInfo.packageName, info);
-            }
-        }
-        i = new Intent(Intent.ACTION_MAIN);
-        for (String category : sSupportedCategories) {
-            i.addCategory(category);
-            for (ResolveInfo r : packageManager.queryIntentActivities(i, 0)) {
-                IconPackInfo info = new IconPackInfo(r, packageManager);
-                packages.put(r.activityInfo.packageName, info);
-            }
-            i.removeCategory(category);
-        }
-        return packages;
-    }
-
-    private void loadResourcesFromXmlParser(XmlPullParser parser,
-            Map<String, String> iconPackResources) throws XmlPullParserException, IOException {
+    private static void loadResourcesFromXmlParser(XmlPullParser parser,
+            Map<String, String> iconPackResources, List<String> iconBackStrings)
+            throws XmlPullParserException, IOException {
         int eventType = parser.getEventType();
 
         while (parser.next() != XmlPullParser.END_DOCUMENT) {
@@ -221,7 +224,7 @@ public class IconPackHelper implements DialogInterface.OnDismissListener {
                 String icon = parser.getAttributeValue(null, "img");
                 if (icon == null) {
                     for (int i = 0; i < parser.getAttributeCount(); i++) {
-                        mIconBackStrings.add(parser.getAttributeValue(i));
+                        iconBackStrings.add(parser.getAttributeValue(i));
                     }
                 }
                 continue;
@@ -254,13 +257,19 @@ public class IconPackHelper implements DialogInterface.OnDismissListener {
 
     private boolean loadIconPack() {
         String packageName = mCurrentIconPack;
+        clearCompositors();
         mIconBackList.clear();
         mIconBackStrings.clear();
         if (TextUtils.isEmpty(packageName)){
             return false;
         }
         mLoading = true;
-        mIconPackResources = getIconPackResources(mContext, packageName);
+        closeIconPackIds();
+        mIconPackIndex = getIconPackIndex(mContext, packageName);
+        if (mIconPackIndex != null) {
+            mIconBackStrings.addAll(mIconPackIndex.getBackStrings());
+            mIconPackIds = IconPackIdCache.open(mContext, packageName);
+        }
         Resources res = null;
         try {
             res = mContext.getPackageManager().getResourcesForApplication(packageName);
@@ -280,40 +289,54 @@ public class IconPackHelper implements DialogInterface.OnDismissListener {
                 mIconBackList.add(backIcon);
             }
         }
-        String scale = mIconPackResources.get(ICON_SCALE_TAG);
+        String scale = mIconPackIndex != null ? mIconPackIndex.get(ICON_SCALE_TAG) : null;
         if (scale != null) {
             try {
                 mIconScale = Float.valueOf(scale);
             } catch (NumberFormatException e) {
             }
         }
+        // anything prepared while loading used a partial pack
+        clearCompositors();
         mLoading = false;
         return true;
     }
 
-    private Map<String, String> getIconPackResources(Context context, String packageName) {
+    private IconPackIndex getIconPackIndex(final Context context, final String packageName) {
         if (TextUtils.isEmpty(packageName)) {
             return null;
         }
-        try {
-            InputStream inputStream = null;
-            Map<String, String> iconPackResources = new HashMap<String, String>();
-
-            XmlPullParser appFilter = getAppFilter(context, packageName);
-            if (appFilter != null) {
-                loadResourcesFromXmlParser(appFilter, iconPackResources);
-                return iconPackResources;
+        // appfilter.xml is only parsed if there is no current index
+        return IconPackIndex.open(context, packageName, new IconPackIndex.Parser() {
+            @Override
+            public boolean parse(Map<String, String> resources, List<String> backStrings) {
+                try {
+                    XmlPullParser appFilter = getAppFilter(context, packageName);
+                    if (appFilter != null) {
+                        loadResourcesFromXmlParser(appFilter, resources, backStrings);
+                        return true;
+                    }
+                } catch (Exception e) {
+                    Toast.makeText(context, "Invalid IconPack", Toast.LENGTH_SHORT).show();
+                }
+                return false;
             }
-        } catch (Exception e) {
-            Toast.makeText(context, "Invalid IconPack", Toast.LENGTH_SHORT).show();
+        });
+    }
+
+    private void closeIconPackIds() {
+        if (mIconPackIds != null) {
+            mIconPackIds.close();
+            mIconPackIds = null;
         }
-        return null;
     }
 
     public void unloadIconPack() {
+        clearCompositors();
+        closeIconPackIds();
         mLoadedIconPackResource = null;
         mLoadedIconPackName = null;
-        mIconPackResources = null;
+        mIconPackIndex = null;
         mIconMask = null;
         mIconBackList.clear();
         mIconBackStrings.clear();
@@ -325,28 +348,27 @@ public class IconPackHelper implements DialogInterface.OnDismissListener {
         if (mDialog != null) {
             return;
         }
-        Map<String, IconPackInfo> supportedPackages = getSupportedPackages(context);
-        if (supportedPackages.isEmpty()) {
-            Toast.makeText(context, R.string.no_iconpacks_summary, Toast.LENGTH_SHORT).show();
-            return;
-        }
+        // opens with the cached list - packs found meanwhile are added
         AlertDialog.Builder builder = new AlertDialog.Builder(context)
         .setTitle(R.string.dialog_pick_iconpack_title)
         .setOnDismissListener(this)
         .setNegativeButton(android.R.string.cancel, null)
-        .setView(createDialogView(context, supportedPackages));
+        .setView(createDialogView(context));
         mDialog = builder.show();
     }
 
-    private View createDialogView(final Context context, Map<String, IconPackInfo> supportedPackages) {
+    private View createDialogView(final Context context) {
         final LayoutInflater inflater = (LayoutInflater) context
                 .getSystemService(Context.LAYOUT_INFLATER_SERVICE);
         final View view = inflater.inflate(R.layout.dialog_iconpack, null);
-        final IconAdapter adapter = new IconAdapter(context, supportedPackages);
-
-        mListView = (ListView) view.findViewById(R.id.iconpack_list);
-        mListView.setAdapter(adapter);
-        mListView.setOnItemClickListener(new OnItemClickListener() {
+        final IconPackAdapter adapter = new IconPackAdapter(context,
+                context.getString(R.string.default_iconpack_title),
+                PreferenceManager.getDefaultSharedPreferences(context).getString(SettingsActivity.PREF_ICONPACK, ""));
+        mAdapter = adapter;
+
+        ListView listView = (ListView) view.findViewById(R.id.iconpack_list);
+        listView.setAdapter(adapter);
+        listView.setOnItemClickListener(new OnItemClickListener() {
             @Override
             public void onItemClick(AdapterView<?> parent, View view,
                         int position, long id) {
@@ -367,19 +389,42 @@ public class IconPackHelper implements DialogInterface.OnDismissListener {
         if (mDialog != null) {
             mDialog = null;
         }
+        if (mAdapter != null) {
+            mAdapter.stopListening();
+            mAdapter = null;
+        }
     }
 
     public boolean isIconPackLoaded() {
         return mLoadedIconPackResource != null &&
                 mLoadedIconPackName != null &&
-                mIconPackResources != null;
+                mIconPackIndex != null;
     }
 
     private int getResourceIdForDrawable(String resource) {
+        final IconPackIdCache ids = mIconPackIds;
+        // no package or component starts with @
+        final String key = "@" + resource;
+        if (ids != null) {
+            final int resId = ids.get(key);
+            if (resId != IconPackIdCache.UNKNOWN) {
+                return resId;
+            }
+        }
         int resId = mLoadedIconPackResource.getIdentifier(resource, "drawable", mLoadedIconPackName);
+        if (ids != null) {
+            ids.put(key, resId);
+        }
         return resId;
     }
 
+    /**
+     * @return package name of the loaded icon pack or empty if none
+     */
+    public String getLoadedIconPackName() {
+        return isIconPackLoaded() ? mLoadedIconPackName : "";
+    }
+
     public Resources getIconPackResources() {
         return mLoadedIconPackResource;
     }
@@ -389,16 +434,28 @@ public class IconPackHelper implements DialogInterface.OnDismissListener {
         if (!isIconPackLoaded() || mLoading){
             return 0;
         }
-        String drawable = mIconPackResources.get(info.packageName.toLowerCase()
-                + "." + info.name.toLowerCase());
+        final String key = info.packageName.toLowerCase() + "." + info.name.toLowerCase();
+        final IconPackIdCache ids = mIconPackIds;
+        if (ids != null) {
+            final int resId = ids.get(key);
+            if (resId != IconPackIdCache.UNKNOWN) {
+                return resId;
+            }
+        }
+        int resId = 0;
+        String drawable = mIconPackIndex.get(key);
         if (drawable == null) {
             // Icon pack doesn't have an icon for the activity, fallback to package icon
-            drawable = mIconPackResources.get(info.packageName.toLowerCase());
-            if (drawable == null) {
-                return 0;
-            }
+            drawable = mIconPackIndex.get(info.packageName.toLowerCase());
         }
-        return getResourceIdForDrawable(drawable);
+        if (drawable != null) {
+            resId = getResourceIdForDrawable(drawable);
+        }
+        if (ids != null) {
+            // misses are kept as 0
+            ids.put(key, resId);
+        }
+        return resId;
     }
 
     public int getResourceIdForApp(String pkgName) {
@@ -408,89 +465,6 @@ public class IconPackHelper implements DialogInterface.OnDismissListener {
         return getResourceIdForActivityIcon(info);
     }
 
-    static class IconPackInfo {
-        String packageName;
-        CharSequence label;
-        Drawable icon;
-
-        IconPackInfo(ResolveInfo r, android.content.pm.PackageManager packageManager) {
-            packageName = r.activityInfo.packageName;
-            icon = r.loadIcon(packageManager);
-            label = r.loadLabel(packageManager);
-        }
-
-        IconPackInfo(){
-        }
-
-        public IconPackInfo(String label, Drawable icon, String packageName) {
-            this.label = label;
-            this.icon = icon;
-            this.packageName = packageName;
-        }
-    }
-
-    private static class IconAdapter extends BaseAdapter {
-        ArrayList<IconPackInfo> mSupportedPackages;
-        LayoutInflater mLayoutInflater;
-        String mCurrentIconPack;
-        int mCurrentIconPackPosition = -1;
-
-        IconAdapter(Context ctx, Map<String, IconPackInfo> supportedPackages) {
-            mLayoutInflater = LayoutInflater.from(ctx);
-            mSupportedPackages = new ArrayList<IconPackInfo>(supportedPackages.values());
-            Collections.sort(mSupportedPackages, new Comparator<IconPackInfo>() {
-                @Override
-                public int compare(IconPackInfo lhs, IconPackInfo rhs) {
-                    return lhs.label.toString().compareToIgnoreCase(rhs.label.toString());
-                }
-            });
-
-            Resources res = ctx.getResources();
-            String defaultLabel = res.getString(R.string.default_iconpack_title);
-            Drawable icon = res.getDrawable(R.drawable.ic_launcher);
-            mSupportedPackages.add(0, new IconPackInfo(defaultLabel, icon, ""));
-            mCurrentIconPack = PreferenceManager.getDefaultSharedPreferences(ctx).getString(SettingsActivity.PREF_ICONPACK, "");
-        }
-
-        @Override
-        public int getCount() {
-            return mSupportedPackages.size();
-        }
-
-        @Override
-        public String getItem(int position) {
-            return (String) mSupportedPackages.get(position).packageName;
-        }
-
-        @Override
-        public long getItemId(int position) {
-            return 0;
-        }
-
-        public boolean isCurrentIconPack(int position) {
-            return mCurrentIconPackPosition == position;
-        }
-
-        @Override
-        public View getView(int position, View convertView, ViewGroup parent) {
-            if (convertView == null) {
-                convertView = mLayoutInflater.inflate(R.layout.iconpack_view, null);
-            }
-            IconPackInfo info = mSupportedPackages.get(position);
-            TextView txtView = (TextView) convertView.findViewById(R.id.title);
-            txtView.setText(info.label);
-            ImageView imgView = (ImageView) convertView.findViewById(R.id.icon);
-            imgView.setImageDrawable(info.icon);
-            RadioButton radioButton = (RadioButton) convertView.findViewById(R.id.radio);
-            boolean isCurrentIconPack = info.packageName.equals(mCurrentIconPack);
-            radioButton.setChecked(isCurrentIconPack);
-            if (isCurrentIconPack) {
-                mCurrentIconPackPosition = position;
-            }
-            return convertView;
-        }
-    }
-
     public void updatePrefs(SharedPreferences prefs, String key) {
         if (key == null || key.equals(SettingsActivity.PREF_ICONPACK)){
             String iconPack = prefs.getString(SettingsActivity.PREF_ICONPACK, "");
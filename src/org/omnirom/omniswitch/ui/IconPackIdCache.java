@@ -0,0 +1,194 @@
+/*
+ *  Copyright (C) 2023 The OmniROM Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.omnirom.omniswitch.ui;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import android.content.Context;
+import android.util.Log;
+
+/**
+ * Resource ids already resolved in the loaded icon pack including the
+ * misses so getIdentifier runs only once per lookup key. Stored next to
+ * the IconPackIndex and only used while the pack version matches.
+ *
+ * file: MAGIC, VERSION, versionCode, lastUpdateTime, count, (key, id)*
+ */
+class IconPackIdCache {
+    private static final String TAG = "OmniSwitch:IconPackIdCache";
+    private static final boolean DEBUG = false;
+    private static final int MAGIC = 0x4f534944; // OSID
+    private static final int VERSION = 1;
+    private static final String SUFFIX = ".ids";
+    // new ids are written in batches
+    private static final long SAVE_DELAY_MS = 5000;
+    static final int UNKNOWN = -1;
+
+    private final Context mContext;
+    private final String mPackageName;
+    private final long[] mVersion;
+    // lookup key -> resource id or 0 if the pack has none
+    private final Map<String, Integer> mIds = new HashMap<String, Integer>();
+    private final ScheduledExecutorService mWriter = Executors.newSingleThreadScheduledExecutor();
+    private boolean mSavePending;
+    private boolean mDirty;
+
+    private IconPackIdCache(Context context, String packageName, long[] version) {
+        mContext = context;
+        mPackageName = packageName;
+        mVersion = version;
+    }
+
+    /**
+     * @return null if the pack is not installed
+     */
+    static IconPackIdCache open(Context context, String packageName) {
+        final long[] version = IconPackIndex.getVersion(context, packageName);
+        if (version == null) {
+            return null;
+        }
+        IconPackIdCache cache = new IconPackIdCache(context, packageName, version);
+        cache.read();
+        return cache;
+    }
+
+    /**
+     * @return resource id, 0 if the pack has none or UNKNOWN
+     */
+    int get(String key) {
+        synchronized (mIds) {
+            Integer id = mIds.get(key);
+            return id != null ? id : UNKNOWN;
+        }
+    }
+
+    void put(String key, int id) {
+        synchronized (mIds) {
+            mIds.put(key, id);
+            mDirty = true;
+            if (mSavePending) {
+                return;
+            }
+            mSavePending = true;
+        }
+        try {
+            mWriter.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    write();
+                }
+            }, SAVE_DELAY_MS, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // closed - ids are resolved again next time
+        }
+    }
+
+    /**
+     * Write pending ids and stop
+     */
+    void close() {
+        try {
+            mWriter.execute(new Runnable() {
+                @Override
+                public void run() {
+                    write();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+        }
+        mWriter.shutdown();
+    }
+
+    private File getFile() {
+        return new File(IconPackIndex.getDir(mContext), mPackageName + SUFFIX);
+    }
+
+    private void read() {
+        final File file = getFile();
+        if (!file.exists()) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION
+                    || in.readLong() != mVersion[0] || in.readLong() != mVersion[1]) {
+                throw new IOException("stale");
+            }
+            final int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                final String key = in.readUTF();
+                mIds.put(key, in.readInt());
+            }
+            if (DEBUG) Log.d(TAG, "read " + count + " ids of " + mPackageName);
+        } catch (IOException e) {
+            if (DEBUG) Log.d(TAG, "dropped " + mPackageName + " " + e.getMessage());
+            mIds.clear();
+            file.delete();
+        }
+    }
+
+    private void write() {
+        final File dir = IconPackIndex.getDir(mContext);
+        if (!dir.exists() && !dir.mkdirs()) {
+            return;
+        }
+        synchronized (mIds) {
+            mSavePending = false;
+            if (!mDirty) {
+                return;
+            }
+        }
+        File tmp = new File(dir, mPackageName + SUFFIX + ".tmp");
+        try (FileOutputStream fos = new FileOutputStream(tmp);
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos))) {
+            synchronized (mIds) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeLong(mVersion[0]);
+                out.writeLong(mVersion[1]);
+                out.writeInt(mIds.size());
+                for (Map.Entry<String, Integer> entry : mIds.entrySet()) {
+                    out.writeUTF(entry.getKey());
+                    out.writeInt(entry.getValue());
+                }
+                mDirty = false;
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "failed to write " + mPackageName, e);
+            tmp.delete();
+            return;
+        }
+        if (!tmp.renameTo(getFile())) {
+            tmp.delete();
+        }
+        if (DEBUG) Log.d(TAG, "stored ids of " + mPackageName);
+    }
+}
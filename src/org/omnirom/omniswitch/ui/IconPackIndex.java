@@ -0,0 +1,310 @@
+/*
+ *  Copyright (C) 2023 The OmniROM Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.omnirom.omniswitch.ui;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import android.content.Context;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+import android.os.SystemClock;
+import android.util.Log;
+
+/**
+ * Parsed appfilter.xml of an icon pack as a sorted string table that is
+ * memory mapped from the cache dir. Lookups are a binary search on the
+ * UTF-8 keys so the entries never live in the heap. The file is tied
+ * to version and update time of the pack and rebuilt when they change.
+ *
+ * file: MAGIC, VERSION, versionCode, lastUpdateTime, back count, backs*,
+ * entry count, entry offsets[count], (key length, key, value length, value)*
+ */
+class IconPackIndex {
+    private static final String TAG = "OmniSwitch:IconPackIndex";
+    private static final boolean DEBUG = false;
+    private static final String DIR_NAME = "iconpacks";
+    private static final int MAGIC = 0x4f534950; // OSIP
+    private static final int VERSION = 1;
+
+    // sorts like compare on the mapped bytes
+    private static final Comparator<byte[]> KEY_ORDER = new Comparator<byte[]>() {
+        @Override
+        public int compare(byte[] lhs, byte[] rhs) {
+            final int length = Math.min(lhs.length, rhs.length);
+            for (int i = 0; i < length; i++) {
+                final int diff = (lhs[i] & 0xff) - (rhs[i] & 0xff);
+                if (diff != 0) {
+                    return diff;
+                }
+            }
+            return lhs.length - rhs.length;
+        }
+    };
+
+    private final ByteBuffer mBuffer;
+    private final List<String> mBackStrings;
+    private final int mCount;
+    private final int mOffsetsStart;
+
+    private IconPackIndex(ByteBuffer buffer) throws IOException {
+        mBuffer = buffer;
+        if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            throw new IOException("unknown format");
+        }
+        int pos = 24;
+        final int backCount = buffer.getInt(pos);
+        pos += 4;
+        mBackStrings = new ArrayList<String>(backCount);
+        for (int i = 0; i < backCount; i++) {
+            mBackStrings.add(readString(pos));
+            pos += 2 + (buffer.getShort(pos) & 0xffff);
+        }
+        mCount = buffer.getInt(pos);
+        mOffsetsStart = pos + 4;
+        if (mCount < 0 || mOffsetsStart + 4L * mCount > buffer.capacity()) {
+            throw new IOException("truncated");
+        }
+    }
+
+    /**
+     * Index of the pack - from the cache dir if it is still current,
+     * else built by parser and stored for the next load
+     */
+    static IconPackIndex open(Context context, String packageName, Parser parser) {
+        final long[] version = getVersion(context, packageName);
+        if (version == null) {
+            return null;
+        }
+        final File dir = getDir(context);
+        final File file = new File(dir, packageName);
+        if (file.exists()) {
+            try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+                    FileChannel channel = raf.getChannel()) {
+                ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                if (buffer.capacity() >= 28 && buffer.getLong(8) == version[0]
+                        && buffer.getLong(16) == version[1]) {
+                    IconPackIndex index = new IconPackIndex(buffer);
+                    if (DEBUG) Log.d(TAG, "mapped " + packageName + " " + index.mCount);
+                    return index;
+                }
+            } catch (IOException | RuntimeException e) {
+                Log.w(TAG, "failed to read " + packageName, e);
+            }
+            file.delete();
+        }
+
+        final long start = SystemClock.elapsedRealtime();
+        final Map<String, String> resources = new HashMap<String, String>();
+        final List<String> backStrings = new ArrayList<String>();
+        if (!parser.parse(resources, backStrings)) {
+            return null;
+        }
+        final byte[] data;
+        try {
+            data = build(version, resources, backStrings);
+        } catch (IOException e) {
+            Log.e(TAG, "build", e);
+            return null;
+        }
+        if (DEBUG) Log.d(TAG, "built " + packageName + " " + resources.size() + " entries "
+                + data.length + " bytes in " + (SystemClock.elapsedRealtime() - start) + "ms");
+        if (write(dir, file, data)) {
+            // only the current pack is kept - stale resolved ids go as well
+            File[] files = dir.listFiles();
+            if (files != null) {
+                for (File f : files) {
+                    if (!f.equals(file)) {
+                        f.delete();
+                    }
+                }
+            }
+            try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+                    FileChannel channel = raf.getChannel()) {
+                return new IconPackIndex(channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                        channel.size()));
+            } catch (IOException e) {
+                Log.w(TAG, "failed to map " + packageName, e);
+            }
+        }
+        // still usable from the heap for this load
+        try {
+            return new IconPackIndex(ByteBuffer.wrap(data));
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    interface Parser {
+        /**
+         * @return false if the pack could not be parsed
+         */
+        boolean parse(Map<String, String> resources, List<String> backStrings);
+    }
+
+    /**
+     * @return value for key or null
+     */
+    String get(String key) {
+        final byte[] query = key.getBytes(StandardCharsets.UTF_8);
+        int low = 0;
+        int high = mCount - 1;
+        while (low <= high) {
+            final int mid = (low + high) >>> 1;
+            final int offset = mBuffer.getInt(mOffsetsStart + 4 * mid);
+            final int cmp = compareKey(offset, query);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return readString(offset + 2 + query.length);
+            }
+        }
+        return null;
+    }
+
+    List<String> getBackStrings() {
+        return mBackStrings;
+    }
+
+    int size() {
+        return mCount;
+    }
+
+    // key at offset against query without decoding it
+    private int compareKey(int offset, byte[] query) {
+        final int length = mBuffer.getShort(offset) & 0xffff;
+        final int start = offset + 2;
+        final int common = Math.min(length, query.length);
+        for (int i = 0; i < common; i++) {
+            final int diff = (mBuffer.get(start + i) & 0xff) - (query[i] & 0xff);
+            if (diff != 0) {
+                return diff;
+            }
+        }
+        return length - query.length;
+    }
+
+    private String readString(int offset) {
+        final int length = mBuffer.getShort(offset) & 0xffff;
+        final byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = mBuffer.get(offset + 2 + i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static byte[] build(long[] version, Map<String, String> resources,
+            List<String> backStrings) throws IOException {
+        final List<byte[][]> entries = new ArrayList<byte[][]>(resources.size());
+        for (Map.Entry<String, String> entry : resources.entrySet()) {
+            if (entry.getValue() == null) {
+                // same as a missing entry for every lookup
+                continue;
+            }
+            final byte[] key = entry.getKey().getBytes(StandardCharsets.UTF_8);
+            final byte[] value = entry.getValue().getBytes(StandardCharsets.UTF_8);
+            if (key.length > 0xffff || value.length > 0xffff) {
+                continue;
+            }
+            entries.add(new byte[][] { key, value });
+        }
+        entries.sort(new Comparator<byte[][]>() {
+            @Override
+            public int compare(byte[][] lhs, byte[][] rhs) {
+                return KEY_ORDER.compare(lhs[0], rhs[0]);
+            }
+        });
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeLong(version[0]);
+        out.writeLong(version[1]);
+        out.writeInt(backStrings.size());
+        for (String back : backStrings) {
+            writeString(out, back != null ? back.getBytes(StandardCharsets.UTF_8) : new byte[0]);
+        }
+        out.writeInt(entries.size());
+        int offset = out.size() + 4 * entries.size();
+        for (byte[][] entry : entries) {
+            out.writeInt(offset);
+            offset += 4 + entry[0].length + entry[1].length;
+        }
+        for (byte[][] entry : entries) {
+            writeString(out, entry[0]);
+            writeString(out, entry[1]);
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static void writeString(DataOutputStream out, byte[] bytes) throws IOException {
+        out.writeShort(Math.min(bytes.length, 0xffff));
+        out.write(bytes, 0, Math.min(bytes.length, 0xffff));
+    }
+
+    private static boolean write(File dir, File file, byte[] data) {
+        if (!dir.exists() && !dir.mkdirs()) {
+            return false;
+        }
+        File tmp = new File(dir, file.getName() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(tmp)) {
+            out.write(data);
+        } catch (IOException e) {
+            Log.w(TAG, "failed to write " + file.getName(), e);
+            tmp.delete();
+            return false;
+        }
+        if (!tmp.renameTo(file)) {
+            tmp.delete();
+            return false;
+        }
+        return true;
+    }
+
+    static File getDir(Context context) {
+        return new File(context.getCacheDir(), DIR_NAME);
+    }
+
+    /**
+     * @return versionCode and lastUpdateTime - a reinstall may keep the versionCode
+     */
+    static long[] getVersion(Context context, String packageName) {
+        try {
+            PackageInfo info = context.getPackageManager().getPackageInfo(packageName, 0);
+            return new long[] { info.getLongVersionCode(), info.lastUpdateTime };
+        } catch (PackageManager.NameNotFoundException e) {
+            return null;
+        }
+    }
+}
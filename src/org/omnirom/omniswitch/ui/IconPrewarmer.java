@@ -0,0 +1,194 @@
+/*
+ *  Copyright (C) 2023 The OmniROM Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.omnirom.omniswitch.ui;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.omnirom.omniswitch.PackageManager;
+import org.omnirom.omniswitch.SwitchConfiguration;
+import org.omnirom.omniswitch.TaskLoaderScheduler;
+
+import android.content.Context;
+import android.graphics.drawable.Drawable;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+/**
+ * Renders app drawer icons into the BitmapCache on background workers
+ * so the adapters only have to pick them up.
+ */
+public class IconPrewarmer {
+    private static final String TAG = "OmniSwitch:IconPrewarmer";
+    private static final boolean DEBUG = false;
+    // about one screen of the app drawer
+    private static final int VISIBLE_ITEMS = 24;
+
+    public interface OnIconReadyListener {
+        public void onIconReady(String intent, Drawable icon);
+    }
+
+    private static IconPrewarmer sInstance;
+    private Context mContext;
+    private SwitchConfiguration mConfiguration;
+    private TaskLoaderScheduler mScheduler;
+    private Handler mHandler;
+    private List<OnIconReadyListener> mListeners = new CopyOnWriteArrayList<OnIconReadyListener>();
+    // stats of the current pass
+    private final Set<String> mPending = new HashSet<String>();
+    private volatile int mPass;
+    private final AtomicInteger mRendered = new AtomicInteger();
+    private final AtomicLong mRenderTime = new AtomicLong();
+    private long mPassStart;
+
+    public static IconPrewarmer getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new IconPrewarmer(context);
+        }
+        return sInstance;
+    }
+
+    private IconPrewarmer(Context context) {
+        mContext = context;
+        mConfiguration = SwitchConfiguration.getInstance(context);
+        mScheduler = new TaskLoaderScheduler("IconPrewarm");
+        mHandler = new Handler(Looper.getMainLooper());
+    }
+
+    public void addListener(OnIconReadyListener listener) {
+        mListeners.add(listener);
+    }
+
+    public void removeListener(OnIconReadyListener listener) {
+        mListeners.remove(listener);
+    }
+
+    /**
+     * Drop the last pass and render all icons of the list in drawer order
+     */
+    public void prewarm(List<PackageManager.PackageItem> packageList) {
+        mScheduler.cancelAll();
+        synchronized (mPending) {
+            mPass++;
+            mPending.clear();
+        }
+        mRendered.set(0);
+        mRenderTime.set(0);
+        mPassStart = SystemClock.elapsedRealtime();
+
+        final Set<String> hiddenAppsList = mConfiguration.mHiddenAppsList;
+        int position = 0;
+        for (PackageManager.PackageItem packageItem : packageList) {
+            if (hiddenAppsList.contains(packageItem.getIntent())) {
+                continue;
+            }
+            submit(packageItem, getPriority(position++));
+        }
+        if (DEBUG) Log.d(TAG, "prewarm " + mPending.size() + " icons");
+    }
+
+    /**
+     * Icon is needed right now by a bound view
+     */
+    public void request(PackageManager.PackageItem packageItem) {
+        submit(packageItem, TaskLoaderScheduler.PRIORITY_VISIBLE);
+    }
+
+    /**
+     * Icon is likely to be needed soon
+     */
+    public void prefetch(PackageManager.PackageItem packageItem) {
+        submit(packageItem, TaskLoaderScheduler.PRIORITY_PREFETCH);
+    }
+
+    public void cancel() {
+        mScheduler.cancelAll();
+    }
+
+    private void submit(final PackageManager.PackageItem packageItem, int priority) {
+        if (BitmapCache.getInstance(mContext).getPackageIconIfCached(packageItem, mConfiguration) != null) {
+            return;
+        }
+        final int pass = mPass;
+        final boolean added;
+        synchronized (mPending) {
+            // before submit since the job may finish right away
+            added = mPending.add(packageItem.getIntent());
+        }
+        final boolean submitted = mScheduler.submit(packageItem.getIntent(), priority,
+                new TaskLoaderScheduler.Job() {
+            @Override
+            public void run() {
+                final long start = SystemClock.elapsedRealtime();
+                final Drawable d = BitmapCache.getInstance(mContext).getPackageIconCached(
+                        mContext.getResources(), packageItem, mConfiguration);
+                final long time = SystemClock.elapsedRealtime() - start;
+                if (DEBUG) Log.d(TAG, "rendered " + packageItem.getIntent() + " in " + time + "ms");
+                mRendered.incrementAndGet();
+                mRenderTime.addAndGet(time);
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        for (OnIconReadyListener listener : mListeners) {
+                            listener.onIconReady(packageItem.getIntent(), d);
+                        }
+                    }
+                });
+                done(pass, packageItem.getIntent());
+            }
+
+            @Override
+            protected void onCancelled() {
+                done(pass, packageItem.getIntent());
+            }
+        });
+        if (!submitted && added) {
+            synchronized (mPending) {
+                mPending.remove(packageItem.getIntent());
+            }
+        }
+    }
+
+    private void done(int pass, String intent) {
+        synchronized (mPending) {
+            if (pass != mPass || !mPending.remove(intent) || !mPending.isEmpty()) {
+                return;
+            }
+        }
+        final int rendered = mRendered.get();
+        if (DEBUG) Log.d(TAG, "prewarm done " + rendered + " icons in "
+                + (SystemClock.elapsedRealtime() - mPassStart) + "ms avg render "
+                + (rendered != 0 ? mRenderTime.get() / rendered : 0) + "ms");
+    }
+
+    private int getPriority(int position) {
+        if (position < VISIBLE_ITEMS) {
+            return TaskLoaderScheduler.PRIORITY_VISIBLE;
+        }
+        if (position < 3 * VISIBLE_ITEMS) {
+            return TaskLoaderScheduler.PRIORITY_PREFETCH;
+        }
+        return TaskLoaderScheduler.PRIORITY_BACKGROUND;
+    }
+}
@@ -40,6 +40,10 @@ public class PackageTextView extends TextView {
     private TaskDescription mTask;
     private String mLabel;
     private Runnable mAction;
+    // what setTaskInfo has applied
+    private Drawable mBoundIcon;
+    private boolean mBoundLocked;
+    private int mBoundGeneration = -1;
     private Handler mHandler = new Handler();
 
     public PackageTextView(Context context) {
@@ -79,6 +83,19 @@ public class PackageTextView extends TextView {
         mLabel = mTask.getLabel();
     }
 
+    /**
+     * true if setTaskInfo already applied the current state of the task
+     * with the prefs of generation
+     */
+    public boolean isBound(TaskDescription task, int generation) {
+        return mTask == task && mBoundIcon == task.getIcon() && mBoundLocked == task.isLocked()
+                && mBoundGeneration == generation;
+    }
+
+    public void setBoundGeneration(int generation) {
+        mBoundGeneration = generation;
+    }
+
     public String getLabel() {
         return mLabel;
     }
@@ -116,6 +133,8 @@ public class PackageTextView extends TextView {
             Drawable d= getTask().getIcon();
             d.setBounds(0, 0, configuration.mIconSizePx, configuration.mIconSizePx);
             setCompoundDrawables(null, d, null, null);
+            mBoundIcon = d;
+            mBoundLocked = getTask().isLocked();
             if (getTask().isLocked()) {
                 setBackgroundColor(getResources().getColor(R.color.locked_task_bg_color));
             } else {
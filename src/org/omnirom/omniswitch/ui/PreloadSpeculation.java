@@ -0,0 +1,137 @@
+/*
+ *  Copyright (C) 2023 The OmniROM Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.omnirom.omniswitch.ui;
+
+import java.io.PrintWriter;
+
+import org.omnirom.omniswitch.RecentTasksLoader;
+
+import android.content.Context;
+import android.util.Log;
+import android.view.ViewConfiguration;
+
+/**
+ * Preloads the task list when the drag handle is touched and escalates
+ * to icon and thumb loading once the gesture looks like an open.
+ * Keeps hit and miss counts to tune the thresholds.
+ */
+class PreloadSpeculation {
+    private static final String TAG = "OmniSwitch:PreloadSpeculation";
+    private static final boolean DEBUG = false;
+
+    private final Context mContext;
+    private final float mEscalateDistance;
+    // px per ms
+    private final float mEscalateVelocity;
+    private boolean mActive;
+    private boolean mEscalated;
+
+    private int mGestures;
+    private int mHits;
+    private int mMisses;
+    private int mEscalatedHits;
+    private int mEscalatedMisses;
+    // opens that found the task list already loaded
+    private int mReadyAtOpen;
+
+    PreloadSpeculation(Context context) {
+        mContext = context;
+        ViewConfiguration vc = ViewConfiguration.get(context);
+        mEscalateDistance = vc.getScaledTouchSlop() / 2;
+        mEscalateVelocity = vc.getScaledMinimumFlingVelocity() / 1000f;
+    }
+
+    /**
+     * Touch down on the drag handle
+     */
+    void onDown() {
+        mActive = true;
+        mEscalated = false;
+        RecentTasksLoader.getInstance(mContext).preloadTasksSpeculative();
+    }
+
+    /**
+     * @param openDistance distance moved in the open direction - negative if moving away
+     * @param duration time since the touch down
+     */
+    void onMove(float openDistance, long duration) {
+        if (!mActive || mEscalated) {
+            return;
+        }
+        final float velocity = openDistance / Math.max(1, duration);
+        if (openDistance > mEscalateDistance && velocity > mEscalateVelocity) {
+            if (DEBUG) Log.d(TAG, "escalate distance = " + openDistance + " velocity = " + velocity);
+            escalate();
+        }
+    }
+
+    /**
+     * Gesture is known to open e.g. long press
+     */
+    void escalate() {
+        if (!mActive || mEscalated) {
+            return;
+        }
+        mEscalated = true;
+        RecentTasksLoader.getInstance(mContext).prefetchTaskInfo();
+    }
+
+    void onOpen() {
+        if (!mActive) {
+            return;
+        }
+        mHits++;
+        if (mEscalated) {
+            mEscalatedHits++;
+        }
+        escalate();
+        if (RecentTasksLoader.getInstance(mContext).isTaskListLoaded()) {
+            mReadyAtOpen++;
+        }
+        finish();
+    }
+
+    void onAbandon() {
+        if (!mActive) {
+            return;
+        }
+        mMisses++;
+        if (mEscalated) {
+            mEscalatedMisses++;
+            // drop icon and thumb loads nobody will look at
+            RecentTasksLoader.getInstance(mContext).cancelPendingTaskInfo();
+        }
+        finish();
+    }
+
+    private void finish() {
+        mActive = false;
+        mGestures++;
+        if (DEBUG) Log.d(TAG, getStats());
+    }
+
+    void dump(PrintWriter pw) {
+        pw.println("PreloadSpeculation: " + getStats());
+    }
+
+    private String getStats() {
+        return "gestures = " + mGestures + " hits = " + mHits + " misses = " + mMisses
+                + " escalated hits = " + mEscalatedHits + " escalated misses = " + mEscalatedMisses
+                + " ready at open = " + mReadyAtOpen;
+    }
+}
@@ -17,10 +17,14 @@
  */
 package org.omnirom.omniswitch.ui;
 
+import java.io.PrintWriter;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 
+import org.omnirom.omniswitch.LocaleChangeReceiver;
 import org.omnirom.omniswitch.PackageManager;
 import org.omnirom.omniswitch.R;
 import org.omnirom.omniswitch.RecentTasksLoader;
@@ -47,6 +51,7 @@ import android.graphics.drawable.GradientDrawable;
 import android.graphics.drawable.RippleDrawable;
 import android.os.Build;
 import android.os.Handler;
+import android.os.SystemClock;
 import android.preference.PreferenceManager;
 import android.provider.Settings;
 import android.text.TextUtils;
@@ -58,6 +63,7 @@ import android.view.LayoutInflater;
 import android.view.MotionEvent;
 import android.view.View;
 import android.view.ViewConfiguration;
+import android.view.ViewTreeObserver;
 import android.view.WindowManager;
 import android.view.animation.LinearInterpolator;
 import android.widget.FrameLayout;
@@ -71,6 +77,8 @@ public class SwitchGestureView {
     private static final boolean DEBUG = false;
 
     private static final int FLIP_DURATION_DEFAULT = 200;
+    // speed switcher thumbs are always drawn a bit larger
+    public static final float THUMB_RATIO = 1.2f;
 
     private Context mContext;
     private WindowManager mWindowManager;
@@ -105,8 +113,11 @@ public class SwitchGestureView {
                 Log.d(TAG, "mLongPressRunnable");
             }
             mRecentsManager.hideHidden();
+            mActivationStart = SystemClock.uptimeMillis();
+            mActivationCreated = getCreatedViews();
             mLongPress = true;
             mHandleRecentsUpdate = true;
+            mPreloadSpeculation.onOpen();
             RecentTasksLoader.getInstance(mContext).loadTasksInBackground(0, true, true);
         }};
     private View[] mCurrentItemEnv= new View[3];
@@ -131,11 +142,23 @@ public class SwitchGestureView {
     private int mSlop;
     private boolean mFlingEnable = true;
     private float mLastX;
-    private float mThumbRatio = 1.2f;
     private boolean mMoveStarted;
     private PackageTextView mLockToAppButton;
 
     private GestureDetector mGestureDetector;
+    private PreloadSpeculation mPreloadSpeculation;
+    // views survive between activations and are only rebound
+    private ViewPool<ThumbnailTaskView> mRecentItemPool;
+    private ViewPool<PackageTextView> mFavoriteItemPool;
+    // header and footer of each level
+    private ViewPool<PackageTextView> mSpacerPool;
+    private Map<Integer, PackageTextView> mActionItems = new HashMap<Integer, PackageTextView>();
+    // long press to first drawn frame
+    private long mActivationStart;
+    private int mActivationCreated;
+    private int mActivations;
+    private long mActivationTime;
+    private int mActivationViews;
     private GestureDetector.OnGestureListener mGestureListener = new GestureDetector.OnGestureListener() {
         @Override
         public boolean onSingleTapUp(MotionEvent e) {
@@ -160,6 +183,7 @@ public class SwitchGestureView {
                 }
                 mEnabled = false;
                 mHandler.removeCallbacks(mLongPressRunnable);
+                mPreloadSpeculation.onOpen();
                 mRecentsManager.openSlideLayout(true);
             }
             return false;
@@ -183,6 +207,21 @@ public class SwitchGestureView {
         mActionList = new ArrayList<View>();
         ViewConfiguration vc = ViewConfiguration.get(context);
         mSlop = vc.getScaledTouchSlop() / 2;
+        mPreloadSpeculation = new PreloadSpeculation(context);
+        mRecentItemPool = new ViewPool<ThumbnailTaskView>(new ViewPool.Factory<ThumbnailTaskView>() {
+            @Override
+            public ThumbnailTaskView create() {
+                return getRecentItemTemplate();
+            }
+        });
+        ViewPool.Factory<PackageTextView> packageItemFactory = new ViewPool.Factory<PackageTextView>() {
+            @Override
+            public PackageTextView create() {
+                return getPackageItemTemplate();
+            }
+        };
+        mFavoriteItemPool = new ViewPool<PackageTextView>(packageItemFactory);
+        mSpacerPool = new ViewPool<PackageTextView>(packageItemFactory);
 
         mGestureDetector = new GestureDetector(context, mGestureListener);
         mGestureDetector.setIsLongpressEnabled(false);
@@ -327,9 +366,12 @@ public class SwitchGestureView {
 
                     mRecentsManager.startBoost();
                     mRecentsManager.clearTasks();
-                    RecentTasksLoader.getInstance(mContext).cancelLoadingTasks();
-                    RecentTasksLoader.getInstance(mContext).setSwitchManager(mRecentsManager);
-                    RecentTasksLoader.getInstance(mContext).preloadTasks();
+                    RecentTasksLoader loader = RecentTasksLoader.getInstance(mContext);
+                    if (!loader.isTaskListCurrent()) {
+                        loader.cancelLoadingTasks();
+                    }
+                    loader.setSwitchManager(mRecentsManager);
+                    mPreloadSpeculation.onDown();
 
                     mDownPoint[0] = xRaw;
                     mDownPoint[1] = yRaw;
@@ -343,6 +385,7 @@ public class SwitchGestureView {
                 case MotionEvent.ACTION_CANCEL:
                     v.setPressed(false);
                     mHandler.removeCallbacks(mLongPressRunnable);
+                    mPreloadSpeculation.onAbandon();
                     mEnabled = true;
                     mFlingEnable = false;
                     mMoveStarted = false;
@@ -353,6 +396,8 @@ public class SwitchGestureView {
                     }
                     v.setPressed(false);
                     mFlingEnable = false;
+                    mPreloadSpeculation.onMove(mConfiguration.mLocation == 0 ? distanceX : -distanceX,
+                            event.getEventTime() - event.getDownTime());
                     if (Math.abs(distanceX) > mSlop) {
                         mHandler.removeCallbacks(mLongPressRunnable);
                         if (mLastX > xRaw) {
@@ -381,15 +426,19 @@ public class SwitchGestureView {
                     mFlingEnable = false;
                     mHandler.removeCallbacks(mLongPressRunnable);
                     if(mHidden && mConfiguration.mAutoHide){
+                        mPreloadSpeculation.onAbandon();
                         updateDragHandleImage(true);
                         mHandler.postDelayed(mAutoHideRunnable, SwitchConfiguration.AUTO_HIDE_DEFAULT);
                         return true;
                     }
 
-                    if (mMoveStarted) {
-                        mRecentsManager.finishSlideLayout();
+                    if (mMoveStarted && mRecentsManager.finishSlideLayout()) {
+                        mPreloadSpeculation.onOpen();
                     } else {
-                        mRecentsManager.hideHidden();
+                        if (!mMoveStarted) {
+                            mRecentsManager.hideHidden();
+                        }
+                        mPreloadSpeculation.onAbandon();
                     }
                     mMoveStarted = false;
                     break;
@@ -525,6 +574,16 @@ public class SwitchGestureView {
             updateButton(true);
         }
 
+        if (Utils.isPrefKeyForForceUpdate(key)) {
+            // font, sizes or shape of the pooled views are outdated
+            mRecentItemPool.clear();
+            mFavoriteItemPool.clear();
+            mSpacerPool.clear();
+            mActionItems.clear();
+        } else if (key != null && key.equals(LocaleChangeReceiver.LOCALE_CHANGED_TAG)) {
+            // labels of the cached buttons are outdated
+            mActionItems.clear();
+        }
         if (mConfiguration.mSpeedSwitcher) {
             buildFavoriteItems(mConfiguration.mFavoriteList);
             buildActionList();
@@ -734,12 +793,13 @@ public class SwitchGestureView {
         Iterator<TaskDescription> nextTask = mRecentsManager.getTasks().iterator();
         while(nextTask.hasNext() && i < mConfiguration.mLimitItemsX){
             TaskDescription ad = nextTask.next();
-            ThumbnailTaskView item = getRecentItemTemplate();
-            item.setThumbRatio(mThumbRatio);
+            ThumbnailTaskView item = mRecentItemPool.obtain(i);
+            item.setThumbRatio(THUMB_RATIO);
             item.setTask(ad, false);
             mRecentList.add(item);
             i++;
         }
+        mRecentItemPool.trim(mConfiguration.mLimitItemsX);
         mCurrentRecentItemIndex = 0;
         mCurrentFavoriteItemIndex = 0;
         mCurrentActionItemIndex = 0;
@@ -795,9 +855,43 @@ public class SwitchGestureView {
             actualView.scrollTo(0, 0);
             actualView.setVisibility(View.VISIBLE);
             drawCurrentLevelBorders();
+            if (mActivationStart != 0) {
+                reportFirstFrame(mActivationStart);
+                mActivationStart = 0;
+            }
         }
     }
 
+    public void dump(PrintWriter pw) {
+        pw.println("SwitchGestureView: activations = " + mActivations + " avg first frame = "
+                + (mActivations != 0 ? mActivationTime / mActivations : 0) + "ms created views = "
+                + mActivationViews + " pooled views = " + getCreatedViews());
+        mPreloadSpeculation.dump(pw);
+    }
+
+    private int getCreatedViews() {
+        return mRecentItemPool.getCreated() + mFavoriteItemPool.getCreated()
+                + mSpacerPool.getCreated();
+    }
+
+    private void reportFirstFrame(final long start) {
+        final int created = getCreatedViews() - mActivationCreated;
+        mView.getViewTreeObserver().addOnPreDrawListener(new ViewTreeObserver.OnPreDrawListener() {
+            @Override
+            public boolean onPreDraw() {
+                mView.getViewTreeObserver().removeOnPreDrawListener(this);
+                final long time = SystemClock.uptimeMillis() - start;
+                if (DEBUG){
+                    Log.d(TAG, "first frame after " + time + "ms created views " + created);
+                }
+                mActivations++;
+                mActivationTime += time;
+                mActivationViews += created;
+                return true;
+            }
+        });
+    }
+
     private void layoutTask(ThumbnailTaskView item){
         mCurrentItemEnv[1] = item;
         updateCurrentItemEnv();
@@ -809,25 +903,24 @@ public class SwitchGestureView {
         Iterator<String> nextFavorite = favoriteList.iterator();
         while(nextFavorite.hasNext() && i < mConfiguration.mLimitItemsX){
             String intent = nextFavorite.next();
-            PackageTextView item = getPackageItemTemplate();
             PackageManager.PackageItem packageItem = PackageManager.getInstance(mContext).getPackageItem(intent);
             if (packageItem == null){
                 Log.d(TAG, "failed to add " + intent);
                 continue;
             }
+            PackageTextView item = mFavoriteItemPool.obtain(i);
             item.setIntent(packageItem.getIntent());
             item.setLabel(packageItem.getTitle().toString());
-            Drawable d = BitmapCache.getInstance(mContext).getPackageIconUncached(mContext.getResources(),
-                    packageItem, mConfiguration, mConfiguration.mIconSizeQuickPx);
+            Drawable d = BitmapCache.getInstance(mContext).getPackageIconQuick(mContext.getResources(),
+                    packageItem, mConfiguration);
             d.setBounds(0, 0, mConfiguration.mIconSizeQuickPx, mConfiguration.mIconSizeQuickPx);
             item.setOriginalImage(d);
             item.setCompoundDrawables(null, d, null, null);
-            if (mConfiguration.mShowLabels) {
-                item.setText(item.getLabel());
-            }
+            item.setText(mConfiguration.mShowLabels ? item.getLabel() : null);
             mFavoriteList.add(item);
             i++;
         }
+        mFavoriteItemPool.trim(i);
     }
 
     private void layoutFavorite(PackageTextView item){
@@ -1143,7 +1236,13 @@ public class SwitchGestureView {
             Integer key = nextKey.next();
             Boolean value = mConfiguration.mSpeedSwitchButtons.get(key);
             if (value){
-                PackageTextView item = getActionButton(key);
+                PackageTextView item = mActionItems.get(key);
+                if (item == null) {
+                    item = getActionButton(key);
+                    if (item != null) {
+                        mActionItems.put(key, item);
+                    }
+                }
                 if (item != null){
                     mActionList.add(item);
                     Drawable d = item.getOriginalImage();
@@ -1303,7 +1402,7 @@ public class SwitchGestureView {
     }
 
     private FrameLayout.LayoutParams getListViewParams(int level){
-        int width = level == 1 ? (int)(mConfiguration.mThumbnailWidth * mThumbRatio * 3) : mConfiguration.getCurrentOverlayWidth();
+        int width = level == 1 ? (int)(mConfiguration.mThumbnailWidth * THUMB_RATIO * 3) : mConfiguration.getCurrentOverlayWidth();
         FrameLayout.LayoutParams params = new FrameLayout.LayoutParams(
                 width,
                 FrameLayout.LayoutParams.WRAP_CONTENT);
@@ -1314,7 +1413,7 @@ public class SwitchGestureView {
 
     private int getListItemWidth(int level) {
         if (level == 1){
-            return (int)(mConfiguration.mThumbnailWidth * mThumbRatio) + mConfiguration.mIconBorderDp;
+            return (int)(mConfiguration.mThumbnailWidth * THUMB_RATIO) + mConfiguration.mIconBorderDp;
         }
         return mConfiguration.getCurrentOverlayWidth() / 3;
     }
@@ -1384,16 +1483,18 @@ public class SwitchGestureView {
         LinearLayout listLayout = (LinearLayout)mAllLists[level].getChildAt(0);
         listLayout.removeAllViews();
 
-        PackageTextView header = getPackageItemTemplate();
+        PackageTextView header = mSpacerPool.obtain(2 * level);
         listLayout.addView(header, getListItemParams(level));
 
         Iterator<View> nextItem = getCurrentList(level).iterator();
         while(nextItem.hasNext()){
             View item = nextItem.next();
+            // may still be dimmed from the last activation
+            item.setAlpha(1f);
             listLayout.addView(item, getListItemParams(level));
         }
 
-        PackageTextView footer = getPackageItemTemplate();
+        PackageTextView footer = mSpacerPool.obtain(2 * level + 1);
         listLayout.addView(footer, getListItemParams(level));
         mAllLists[level].setVisibility(View.GONE);
         mAllLists[level].setLayoutParams(getListViewParams(level));
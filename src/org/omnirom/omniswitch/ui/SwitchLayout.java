@@ -24,6 +24,7 @@ import org.omnirom.omniswitch.R;
 import org.omnirom.omniswitch.SettingsActivity;
 import org.omnirom.omniswitch.SwitchConfiguration;
 import org.omnirom.omniswitch.SwitchManager;
+import org.omnirom.omniswitch.TaskChangeSet;
 import org.omnirom.omniswitch.TaskDescription;
 import org.omnirom.omniswitch.Utils;
 
@@ -91,6 +92,10 @@ public class SwitchLayout extends AbstractSwitchLayout {
                 item = getPackageItemTemplate();
             } else {
                 item = (PackageTextView) convertView;
+                if (item.isBound(ad, mBindGeneration)) {
+                    // still bound to the same task e.g. after tasks were appended
+                    return item;
+                }
             }
             item.setTask(ad);
             item.setTaskInfo(mConfiguration);
@@ -99,6 +104,7 @@ public class SwitchLayout extends AbstractSwitchLayout {
             } else {
                 item.setTextColor(mConfiguration.getCurrentTextTint(mConfiguration.getViewBackgroundColor()));
             }
+            item.setBoundGeneration(mBindGeneration);
             return item;
         }
     }
@@ -312,7 +318,10 @@ public class SwitchLayout extends AbstractSwitchLayout {
         if (DEBUG) {
             Log.d(TAG, "updateRecentsAppsList2");
         }
-        mRecentListAdapter.notifyDataSetChanged();
+        TaskChangeSet changes = consumeRecentsChanges();
+        if (refresh || changes == null || !changes.isEmpty()) {
+            mRecentListAdapter.notifyDataSetChanged();
+        }
 
         if (mRecentsManager.getTasks().size() != 0) {
             mNoRecentApps.setVisibility(View.GONE);
@@ -534,6 +543,11 @@ public class SwitchLayout extends AbstractSwitchLayout {
         mAppDrawerAnim.start();
     }
 
+    @Override
+    protected ViewGroup getRecentListView() {
+        return mRecentListHorizontal;
+    }
+
     @Override
     protected void flipToRecentsNew() {
         if (mShowFavAnim != null) {
@@ -24,6 +24,7 @@ import org.omnirom.omniswitch.R;
 import org.omnirom.omniswitch.SettingsActivity;
 import org.omnirom.omniswitch.SwitchConfiguration;
 import org.omnirom.omniswitch.SwitchManager;
+import org.omnirom.omniswitch.TaskChangeSet;
 import org.omnirom.omniswitch.TaskDescription;
 import org.omnirom.omniswitch.Utils;
 
@@ -38,6 +39,7 @@ import android.content.Context;
 import android.content.SharedPreferences;
 import android.graphics.Color;
 import android.graphics.Outline;
+import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.Drawable;
 import android.graphics.PixelFormat;
 import android.text.TextUtils;
@@ -89,7 +91,14 @@ public class SwitchLayoutVertical extends AbstractSwitchLayout {
             } else {
                 item = (ThumbnailTaskView) convertView;
             }
+            if (item.getTask() == ad && !ad.isNeedsUpdate()
+                    && item.getBoundGeneration() == mBindGeneration) {
+                // still bound to the same task e.g. after tasks were appended
+                item.invalidate();
+                return item;
+            }
             item.setTask(ad, ad.isNeedsUpdate());
+            item.setBoundGeneration(mBindGeneration);
 
             if (ad.isNeedsUpdate()) {
                 ad.setNeedsUpdate(false);
@@ -126,7 +135,7 @@ public class SwitchLayoutVertical extends AbstractSwitchLayout {
                 String availMemStr = mContext.getResources()
                         .getString(R.string.service_background_processes,
                                 sizeStr);
-                mRamDisplay.setImageDrawable(BitmapUtils.memImage(mContext.getResources(),
+                setMemImage(BitmapUtils.memImage(mContext.getResources(),
                         mConfiguration.mMemDisplaySize, mConfiguration.mDensity,
                         mConfiguration.mLayoutStyle == 0, usedMemStr, availMemStr,
                         mConfiguration, mConfiguration.getCurrentButtonTint(
@@ -299,6 +308,26 @@ public class SwitchLayoutVertical extends AbstractSwitchLayout {
             }
             return;
         }
+        TaskChangeSet changes = consumeRecentsChanges();
+        if (!refresh && changes != null && !changes.isStructural()) {
+            // same tasks at the same positions - just rebind what changed
+            updateChangedRecents(changes);
+            mUpdateNoRecentsTasksDone = true;
+            return;
+        }
+        if (!refresh && changes != null && changes.isAppendOnly()) {
+            // more tasks of a streamed load - bound views stay as they are
+            if (DEBUG) {
+                Log.d(TAG, "updateRecentsAppsList append " + changes.getInserted().size());
+            }
+            mRecentListAdapter.notifyDataSetChanged();
+            if (mConfiguration.mRevertRecents) {
+                // appended at the top - keep the most recent task in place
+                resetRecentsPosition();
+            }
+            mUpdateNoRecentsTasksDone = true;
+            return;
+        }
         if (DEBUG) {
             Log.d(TAG, "updateRecentsAppsList before notifyDataSetChanged " + System.currentTimeMillis());
         }
@@ -324,6 +353,22 @@ public class SwitchLayoutVertical extends AbstractSwitchLayout {
         mUpdateNoRecentsTasksDone = true;
     }
 
+    private void updateChangedRecents(TaskChangeSet changes) {
+        if (DEBUG) {
+            Log.d(TAG, "updateChangedRecents " + changes);
+        }
+        for (TaskDescription ad : changes.getChanged()) {
+            for (int i = 0; i < mRecentList.getChildCount(); i++) {
+                ThumbnailTaskView item = (ThumbnailTaskView) mRecentList.getChildAt(i);
+                TaskDescription task = item.getTask();
+                if (task != null && task.getPersistentTaskId() == ad.getPersistentTaskId()) {
+                    item.setTask(ad, ad.isNeedsUpdate());
+                    ad.setNeedsUpdate(false);
+                }
+            }
+        }
+    }
+
     @Override
     protected synchronized void initView() {
         if (DEBUG) {
@@ -583,6 +628,11 @@ public class SwitchLayoutVertical extends AbstractSwitchLayout {
         mAppDrawerAnim.start();
     }
 
+    @Override
+    protected ViewGroup getRecentListView() {
+        return mRecentList;
+    }
+
     @Override
     protected void flipToRecentsNew() {
         enableOpenFavoriteButton(true);
@@ -856,6 +906,15 @@ public class SwitchLayoutVertical extends AbstractSwitchLayout {
                 mConfiguration.getCurrentButtonTint(mConfiguration.getButtonBackgroundColor())));
     }
 
+    private void setMemImage(Drawable d) {
+        final Drawable old = mRamDisplay.getDrawable();
+        mRamDisplay.setImageDrawable(d);
+        // memImage bitmaps are only shown here
+        if (old instanceof BitmapDrawable) {
+            BitmapPool.getInstance().put(((BitmapDrawable) old).getBitmap());
+        }
+    }
+
     private void addMemoryDisplay() {
         mActionList.add(mRamDisplayContainer);
     }
@@ -26,6 +26,7 @@ import org.omnirom.omniswitch.R;
 
 import android.content.Context;
 import android.content.pm.ActivityInfo;
+import android.content.res.Configuration;
 import android.content.res.Resources;
 import android.graphics.Bitmap;
 import android.graphics.Canvas;
@@ -52,6 +53,28 @@ public class ThumbnailTaskView extends View implements TaskDescription.ThumbChan
     private float mThumbRatio = 1.0f;
     private static Bitmap sDefaultThumb;
     private SwitchConfiguration mConfiguration;
+    private static final PaintFlagsDrawFilter sDrawFilter = new PaintFlagsDrawFilter(
+            Paint.ANTI_ALIAS_FLAG, Paint.FILTER_BITMAP_FLAG);
+    // precomputed header so drawing does not allocate
+    private boolean mHeaderValid;
+    // layout generation of the last bind
+    private int mBoundGeneration = -1;
+    private boolean mSideHeader;
+    private int mHeaderWidth;
+    private int mHeaderHeight;
+    private int mIconBorderSizePx;
+    private final Rect mThumbSrc = new Rect();
+    private final Rect mThumbDest = new Rect();
+    private final Rect mIconBounds = new Rect();
+    private final Paint mBgPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private TextPaint mTextPaint;
+    private Drawable mHeaderIcon;
+    private String mHeaderLabel;
+    private Drawable mSourceIcon;
+    private String mSourceLabel;
+    private boolean mSourceLocked;
+    private int mLabelX;
+    private int mLabelY;
 
     public ThumbnailTaskView(Context context) {
         super(context);
@@ -70,14 +93,26 @@ public class ThumbnailTaskView extends View implements TaskDescription.ThumbChan
         return mTask;
     }
 
+    public int getBoundGeneration() {
+        return mBoundGeneration;
+    }
+
+    public void setBoundGeneration(int generation) {
+        mBoundGeneration = generation;
+    }
+
     public void setTask(TaskDescription task, boolean reload) {
         mTask = task;
         mTask.setThumbChangeListener(this);
+        mHeaderValid = false;
         ThumbnailData thumb = getTask().getThumb();
         Drawable icon = getTask().getIcon();
 
-        if (thumb == null || icon == null || reload) {
+        if (icon == null || reload) {
             RecentTasksLoader.getInstance(getContext()).loadTaskInfo(getTask());
+        }
+        if (thumb == null || reload) {
+            // shows the default thumb until thumbChanged
             loadTaskThumb();
             invalidate();
         } else {
@@ -137,6 +172,7 @@ public class ThumbnailTaskView extends View implements TaskDescription.ThumbChan
 
     public void setCanSideHeader(boolean mCanSideHeader) {
         this.mCanSideHeader = mCanSideHeader;
+        mHeaderValid = false;
     }
 
     private void loadTaskThumb() {
@@ -151,6 +187,7 @@ public class ThumbnailTaskView extends View implements TaskDescription.ThumbChan
 
     public void setThumbRatio(float thumbRatio) {
         mThumbRatio = thumbRatio;
+        mHeaderValid = false;
     }
 
     private Bitmap getDefaultThumb() {
@@ -179,17 +216,28 @@ public class ThumbnailTaskView extends View implements TaskDescription.ThumbChan
 
     private Drawable getIcon() {
         if (getTask() != null) {
-            Drawable d = getTask().getIcon();
+            Drawable d = getTask().getHeaderIcon();
             if (d != null) {
-                return BitmapUtils.resize(getContext().getResources(), d,
-                        mConfiguration.mOverlayIconSizeDp, 0, mConfiguration.mDensity);
+                return d;
+            }
+            d = BitmapCache.getInstance(getContext()).getTaskHeaderIcon(getContext().getResources(),
+                    getTask(), mConfiguration);
+            if (d != null) {
+                getTask().setHeaderIcon(d);
+                return d;
             }
         }
         return null;
     }
 
     @Override
-    protected void onDraw(Canvas canvas) {
+    protected void onConfigurationChanged(Configuration newConfig) {
+        super.onConfigurationChanged(newConfig);
+        mHeaderValid = false;
+    }
+
+    // everything except the thumb only changes with the task or the config
+    private void updateHeader() {
         final int iconSizePx = Math.round(mConfiguration.mOverlayIconSizeDp * mConfiguration.mDensity);
         final int textInsetPx = Math.round(5 * mConfiguration.mDensity);
         final int width = (int)(mConfiguration.mThumbnailWidth * mThumbRatio);
@@ -198,71 +246,101 @@ public class ThumbnailTaskView extends View implements TaskDescription.ThumbChan
         final int iconBorderSizePx = mConfiguration.getOverlayHeaderWidth();
         Resources resources = getContext().getResources();
 
-        // canvas.setHwBitmapsInSwModeEnabled(true);
-        Bitmap taskThumb = getThumb();
-        taskThumb.prepareToDraw();
-        Drawable taskIcon = getIcon();
-
-        canvas.setDrawFilter(new PaintFlagsDrawFilter(Paint.ANTI_ALIAS_FLAG,
-                Paint.FILTER_BITMAP_FLAG));
-        final Bitmap bmp = Bitmap.createBitmap(sideHeader ? width + iconBorderSizePx : width,
-                sideHeader ? height : height + iconBorderSizePx,
-                Bitmap.Config.ARGB_8888);
-
-        int bSize = taskThumb.getWidth() > taskThumb.getHeight() ? taskThumb.getHeight() : taskThumb.getWidth();
-        Rect src = new Rect(0, 0, bSize, bSize);
-        Rect dest = new Rect(sideHeader ? iconBorderSizePx : 0, sideHeader ? 0 : iconBorderSizePx,
+        mSideHeader = sideHeader;
+        mHeaderWidth = width;
+        mHeaderHeight = height;
+        mIconBorderSizePx = iconBorderSizePx;
+        mThumbDest.set(sideHeader ? iconBorderSizePx : 0, sideHeader ? 0 : iconBorderSizePx,
                 width + (sideHeader ? iconBorderSizePx : 0), height + (sideHeader ? 0 : iconBorderSizePx));
-        canvas.drawBitmap(taskThumb, src, dest, null);
 
-        final TextPaint textPaint = BitmapUtils.getLabelTextPaint(getContext());
+        if (mTextPaint == null) {
+            mTextPaint = new TextPaint(BitmapUtils.getLabelTextPaint(getContext()));
+        }
         final int startTextPx = iconBorderSizePx + textInsetPx;
         final int textSize = Math.round(14 * mConfiguration.mDensity);
-        textPaint.setTextSize(textSize);
+        mTextPaint.setTextSize(textSize);
 
-        Paint bgPaint = null;
         if (getTask().isLocked()) {
-            bgPaint = BitmapUtils.getLockedAppsPaint(resources);
-            textPaint.setColor(Color.WHITE);
+            mBgPaint.set(BitmapUtils.getLockedAppsPaint(resources));
+            mTextPaint.setColor(Color.WHITE);
         } else if (mConfiguration.mColorfulHeader && getTask().getTaskPrimaryColor() != 0) {
-            bgPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
-            bgPaint.setStyle(Paint.Style.FILL);
-            bgPaint.setColor(getTask().getTaskPrimaryColor());
-            textPaint.setColor(getTask().useLightOnPrimaryColor() ? Color.WHITE : Color.BLACK);
+            mBgPaint.reset();
+            mBgPaint.setAntiAlias(true);
+            mBgPaint.setStyle(Paint.Style.FILL);
+            mBgPaint.setColor(getTask().getTaskPrimaryColor());
+            mTextPaint.setColor(getTask().useLightOnPrimaryColor() ? Color.WHITE : Color.BLACK);
         } else {
-            bgPaint = BitmapUtils.getDefaultBgPaint(resources, mConfiguration);
-            textPaint.setColor(mConfiguration.getCurrentTextTint(bgPaint.getColor()));
+            mBgPaint.set(BitmapUtils.getDefaultBgPaint(resources, mConfiguration));
+            mTextPaint.setColor(mConfiguration.getCurrentTextTint(mBgPaint.getColor()));
         }
-        if (bgPaint != null) {
-            if (mConfiguration.mBgStyle != SwitchConfiguration.BgStyle.TRANSPARENT) {
-                bgPaint.setAlpha(255);
-            } else {
-                bgPaint.setAlpha((int) (255 * mConfiguration.mBackgroundOpacity));
-            }
-            if (sideHeader)  {
-                canvas.drawRect(0, 0, iconBorderSizePx, height, bgPaint);
-            } else {
-                canvas.drawRect(0, 0, width, iconBorderSizePx, bgPaint);
-            }
+        if (mConfiguration.mBgStyle != SwitchConfiguration.BgStyle.TRANSPARENT) {
+            mBgPaint.setAlpha(255);
+        } else {
+            mBgPaint.setAlpha((int) (255 * mConfiguration.mBackgroundOpacity));
         }
-        if (taskIcon != null) {
+
+        mSourceIcon = getTask().getIcon();
+        mSourceLabel = getLabel();
+        mSourceLocked = getTask().isLocked();
+        mHeaderIcon = getIcon();
+        if (mHeaderIcon != null) {
             final int iconInset = (iconBorderSizePx - iconSizePx) / 2;
-            taskIcon.setBounds(iconInset, iconInset, iconSizePx + iconInset, iconSizePx + iconInset);
-            taskIcon.draw(canvas);
+            mIconBounds.set(iconInset, iconInset, iconSizePx + iconInset, iconSizePx + iconInset);
         }
+
+        mHeaderLabel = null;
         if (getLabel() != null && mConfiguration.mShowLabels) {
-            String label = TextUtils.ellipsize(getLabel(), textPaint, width - startTextPx - textInsetPx, TextUtils.TruncateAt.END).toString();
+            mHeaderLabel = TextUtils.ellipsize(getLabel(), mTextPaint, width - startTextPx - textInsetPx,
+                    TextUtils.TruncateAt.END).toString();
             if (sideHeader) {
+                mLabelX = (int) ((iconBorderSizePx / 2) - ((mTextPaint.descent() + mTextPaint.ascent()) / 2));
+                mLabelY = height - textInsetPx;
+            } else {
+                mLabelX = startTextPx;
+                mLabelY = (int) ((iconBorderSizePx / 2) - ((mTextPaint.descent() + mTextPaint.ascent()) / 2));
+            }
+        }
+        mHeaderValid = true;
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        if (getTask() == null) {
+            return;
+        }
+        // task info may still be loaded after the view was bound
+        if (!mHeaderValid || mSourceIcon != getTask().getIcon() || mSourceLabel != getLabel()
+                || mSourceLocked != getTask().isLocked()) {
+            updateHeader();
+        }
+
+        // canvas.setHwBitmapsInSwModeEnabled(true);
+        Bitmap taskThumb = getThumb();
+        taskThumb.prepareToDraw();
+
+        canvas.setDrawFilter(sDrawFilter);
+
+        int bSize = taskThumb.getWidth() > taskThumb.getHeight() ? taskThumb.getHeight() : taskThumb.getWidth();
+        mThumbSrc.set(0, 0, bSize, bSize);
+        canvas.drawBitmap(taskThumb, mThumbSrc, mThumbDest, null);
+
+        if (mSideHeader)  {
+            canvas.drawRect(0, 0, mIconBorderSizePx, mHeaderHeight, mBgPaint);
+        } else {
+            canvas.drawRect(0, 0, mHeaderWidth, mIconBorderSizePx, mBgPaint);
+        }
+        if (mHeaderIcon != null) {
+            mHeaderIcon.setBounds(mIconBounds);
+            mHeaderIcon.draw(canvas);
+        }
+        if (mHeaderLabel != null) {
+            if (mSideHeader) {
                 canvas.save();
-                int xPos = (int) ((iconBorderSizePx / 2) - ((textPaint.descent() + textPaint.ascent()) / 2)) ; 
-                int yPos = height - textInsetPx;
-                canvas.rotate(270, xPos, yPos);
-                canvas.drawText(label, xPos, yPos, textPaint);
+                canvas.rotate(270, mLabelX, mLabelY);
+                canvas.drawText(mHeaderLabel, mLabelX, mLabelY, mTextPaint);
                 canvas.restore();
             } else {
-                int yPos = (int) ((iconBorderSizePx / 2) - ((textPaint.descent() + textPaint.ascent()) / 2)) ; 
-                int xPos = startTextPx;
-                canvas.drawText(label, xPos, yPos, textPaint);
+                canvas.drawText(mHeaderLabel, mLabelX, mLabelY, mTextPaint);
             }
         }
     }
@@ -0,0 +1,81 @@
+/*
+ *  Copyright (C) 2023 The OmniROM Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.omnirom.omniswitch.ui;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import android.view.View;
+import android.view.ViewGroup;
+
+/**
+ * Views by position that are kept between uses and only rebound.
+ * Views are created on the first use of a position.
+ */
+class ViewPool<T extends View> {
+    interface Factory<T extends View> {
+        T create();
+    }
+
+    private final Factory<T> mFactory;
+    private final List<T> mViews = new ArrayList<T>();
+    private int mCreated;
+
+    ViewPool(Factory<T> factory) {
+        mFactory = factory;
+    }
+
+    /**
+     * View for position - detached from its parent
+     */
+    T obtain(int position) {
+        while (mViews.size() <= position) {
+            mViews.add(mFactory.create());
+            mCreated++;
+        }
+        T view = mViews.get(position);
+        detach(view);
+        return view;
+    }
+
+    /**
+     * Drop the views after maxSize e.g. when the item limit got smaller
+     */
+    void trim(int maxSize) {
+        while (mViews.size() > maxSize) {
+            detach(mViews.remove(mViews.size() - 1));
+        }
+    }
+
+    void clear() {
+        trim(0);
+    }
+
+    /**
+     * Views created since the pool exists
+     */
+    int getCreated() {
+        return mCreated;
+    }
+
+    private static void detach(View view) {
+        if (view.getParent() instanceof ViewGroup) {
+            ((ViewGroup) view.getParent()).removeView(view);
+        }
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ *  Copyright (C) 2023 The OmniROM Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.omnirom.omniswitch;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.TimeZone;
+
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * The incrementally kept top K of FrecencyRanker against a full sort
+ * on a replayed launch trace.
+ */
+@RunWith(AndroidJUnit4.class)
+public class FrecencyRankerTest {
+    private static final long HOUR = 60 * 60 * 1000;
+    private static final long DAY = 24 * HOUR;
+    private static final TimeZone UTC = TimeZone.getTimeZone("UTC");
+    private static final int PACKAGES = 40;
+    private static final int LAUNCHES = 3000;
+    private static final int K = 3;
+    // launches between two top K checks
+    private static final int CHECK_INTERVAL = 50;
+
+    @Test
+    public void evaluateMatchesFullSort() throws IOException {
+        final List<String> packageNames = new ArrayList<String>();
+        final List<Long> timestamps = new ArrayList<Long>();
+        // through the log format like a recorded trace
+        FrecencyRanker.readTrace(new ByteArrayInputStream(createTrace()), packageNames, timestamps);
+        assertEquals(LAUNCHES, packageNames.size());
+
+        final FrecencyRanker.Params params = new FrecencyRanker.Params(7 * DAY, 1.5f);
+        final FrecencyRanker.Evaluation evaluation = FrecencyRanker.evaluate(params, UTC,
+                packageNames, timestamps, K);
+
+        final FrecencyRanker ranker = new FrecencyRanker(params, UTC);
+        int hits = 0;
+        double reciprocalRanks = 0;
+        for (int i = 0; i < packageNames.size(); i++) {
+            final long timestamp = timestamps.get(i);
+            final List<String> sorted = ranker.getTop(Integer.MAX_VALUE, timestamp);
+            final int rank = sorted.indexOf(packageNames.get(i)) + 1;
+            if (rank != 0 && rank <= K) {
+                hits++;
+                reciprocalRanks += 1.0 / rank;
+            }
+            ranker.recordLaunch(packageNames.get(i), timestamp);
+            if (i % CHECK_INTERVAL == 0) {
+                checkTopK(ranker, timestamp);
+            }
+        }
+        assertEquals(LAUNCHES, evaluation.mLaunches);
+        assertEquals(hits, evaluation.mHits);
+        assertEquals(reciprocalRanks, evaluation.mReciprocalRanks, 1e-9);
+    }
+
+    @Test
+    public void paramsSurviveWriteAndRead() throws IOException {
+        final List<String> packageNames = new ArrayList<String>();
+        final List<Long> timestamps = new ArrayList<Long>();
+        FrecencyRanker.readTrace(new ByteArrayInputStream(createTrace()), packageNames, timestamps);
+
+        final FrecencyRanker.Params params = new FrecencyRanker.Params(3 * DAY, 2f);
+        final FrecencyRanker ranker = new FrecencyRanker(params, UTC);
+        for (int i = 0; i < packageNames.size(); i++) {
+            ranker.recordLaunch(packageNames.get(i), timestamps.get(i));
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ranker.write(new DataOutputStream(bytes));
+        final FrecencyRanker restored = FrecencyRanker.read(
+                new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())), UTC);
+
+        assertEquals(params, restored.getParams());
+        assertEquals(ranker.size(), restored.size());
+        final long now = timestamps.get(timestamps.size() - 1);
+        for (int b = 0; b < FrecencyRanker.BUCKETS; b++) {
+            final long time = now + b * DAY / FrecencyRanker.BUCKETS;
+            assertEquals(ranker.getTop(FrecencyRanker.TOP_K, time),
+                    restored.getTop(FrecencyRanker.TOP_K, time));
+        }
+    }
+
+    // top K of every time of day bucket must be the head of the full sort
+    private static void checkTopK(FrecencyRanker ranker, long now) {
+        for (int b = 0; b < FrecencyRanker.BUCKETS; b++) {
+            final long time = now + b * DAY / FrecencyRanker.BUCKETS;
+            final List<String> sorted = ranker.getTop(Integer.MAX_VALUE, time);
+            final List<String> top = ranker.getTop(FrecencyRanker.TOP_K, time);
+            assertEquals(sorted.subList(0, Math.min(FrecencyRanker.TOP_K, sorted.size())), top);
+        }
+    }
+
+    // skewed launches over two months with some apps used at fixed times of day
+    private static byte[] createTrace() throws IOException {
+        final Random random = new Random(4711);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        long timestamp = 1672531200000L; // 2023-01-01
+        for (int i = 0; i < LAUNCHES; i++) {
+            timestamp += 1 + (long) (random.nextDouble() * 60 * DAY / LAUNCHES * 2);
+            final int hour = (int) (timestamp % DAY / HOUR);
+            final int app;
+            if (random.nextInt(4) == 0) {
+                // habit of the time of day
+                app = hour / 6;
+            } else {
+                // zipf like
+                app = (int) (PACKAGES * Math.pow(random.nextDouble(), 3));
+            }
+            out.writeUTF("org.omnirom.test.app" + app);
+            out.writeLong(timestamp);
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ *  Copyright (C) 2023 The OmniROM Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.omnirom.omniswitch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import android.content.pm.ActivityInfo;
+import android.content.pm.ApplicationInfo;
+
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Readers of a published PackageSnapshot must always see a complete and
+ * consistent state while a writer keeps publishing copy-on-write updates.
+ */
+@RunWith(AndroidJUnit4.class)
+public class PackageSnapshotTest {
+    private static final int PACKAGES = 64;
+    private static final int READERS = 4;
+    private static final int PUBLISHES = 5000;
+
+    // written like PackageManager.mSnapshot
+    private volatile PackageSnapshot mSnapshot;
+
+    @Test
+    public void replacePackageKeepsOldSnapshot() {
+        final PackageSnapshot old = new PackageSnapshot(createList(PACKAGES));
+        final String packageName = getPackageName(0);
+        final PackageSnapshot removed = old.replacePackage(packageName,
+                Collections.<PackageManager.PackageItem>emptyList());
+
+        assertEquals(PACKAGES, old.getList().size());
+        assertEquals(1, old.getByPackageName(packageName).size());
+        assertEquals(PACKAGES - 1, removed.getList().size());
+        assertTrue(removed.getByPackageName(packageName).isEmpty());
+        checkConsistent(old);
+        checkConsistent(removed);
+    }
+
+    @Test
+    public void readersRaceWithPublishes() throws InterruptedException {
+        mSnapshot = new PackageSnapshot(createList(PACKAGES));
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        final AtomicBoolean done = new AtomicBoolean();
+        final CountDownLatch finished = new CountDownLatch(READERS);
+
+        for (int i = 0; i < READERS; i++) {
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        while (!done.get() && failure.get() == null) {
+                            checkConsistent(mSnapshot);
+                        }
+                    } catch (Throwable t) {
+                        failure.compareAndSet(null, t);
+                    } finally {
+                        finished.countDown();
+                    }
+                }
+            }, "reader-" + i).start();
+        }
+
+        final Random random = new Random(42);
+        for (int i = 0; i < PUBLISHES && failure.get() == null; i++) {
+            final int index = random.nextInt(PACKAGES);
+            // remove, replace with one or add a second activity
+            final int activities = random.nextInt(3);
+            List<PackageManager.PackageItem> items = new ArrayList<PackageManager.PackageItem>();
+            for (int j = 0; j < activities; j++) {
+                items.add(createItem(index, j, "app " + random.nextInt(PACKAGES)));
+            }
+            mSnapshot = mSnapshot.replacePackage(getPackageName(index), items);
+        }
+        done.set(true);
+
+        assertTrue("readers did not finish", finished.await(10, TimeUnit.SECONDS));
+        if (failure.get() != null) {
+            throw new AssertionError("reader failed", failure.get());
+        }
+        checkConsistent(mSnapshot);
+    }
+
+    private static void checkConsistent(PackageSnapshot snapshot) {
+        final List<PackageManager.PackageItem> list = snapshot.getList();
+        int byPackage = 0;
+        for (String packageName : snapshot.getPackageNames()) {
+            byPackage += snapshot.getByPackageName(packageName).size();
+        }
+        assertEquals(list.size(), byPackage);
+        assertEquals(list.size(), snapshot.getMap().size());
+
+        PackageManager.PackageItem previous = null;
+        for (PackageManager.PackageItem item : list) {
+            if (previous != null) {
+                assertTrue("not sorted", previous.compareTo(item) <= 0);
+            }
+            assertSame(item, snapshot.get(item.getIntent()));
+            assertSame(item, snapshot.getByComponent(item.getIntentRaw().getComponent()));
+            assertTrue(snapshot.getByPackageName(item.getPackageName()).contains(item));
+            previous = item;
+        }
+        assertNull(snapshot.get("missing"));
+
+        try {
+            list.add(previous);
+            fail("list is modifiable");
+        } catch (UnsupportedOperationException e) {
+        }
+    }
+
+    private static List<PackageManager.PackageItem> createList(int count) {
+        List<PackageManager.PackageItem> list = new ArrayList<PackageManager.PackageItem>(count);
+        for (int i = 0; i < count; i++) {
+            list.add(createItem(i, 0, "app " + i));
+        }
+        Collections.sort(list);
+        return list;
+    }
+
+    private static PackageManager.PackageItem createItem(int index, int activity, String title) {
+        ActivityInfo info = new ActivityInfo();
+        info.applicationInfo = new ApplicationInfo();
+        info.applicationInfo.packageName = getPackageName(index);
+        info.packageName = info.applicationInfo.packageName;
+        info.name = info.packageName + ".Activity" + activity;
+        return PackageManager.createPackageItem(info, title);
+    }
+
+    private static String getPackageName(int index) {
+        return "org.omnirom.test.app" + index;
+    }
+}
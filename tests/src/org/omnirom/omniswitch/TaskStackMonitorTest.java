@@ -0,0 +1,139 @@
+/*
+ *  Copyright (C) 2023 The OmniROM Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.omnirom.omniswitch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import android.app.Instrumentation;
+import android.content.Context;
+import android.os.SystemClock;
+
+import androidx.test.platform.app.InstrumentationRegistry;
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Task stack events of a ManualEventSource through the debouncing of
+ * TaskStackMonitor into the RecentTasksLoader model.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TaskStackMonitorTest {
+    // MAX_EVENT_DELAY plus some slack
+    private static final long SETTLE_MS = 700;
+    private static final long LOAD_TIMEOUT_MS = 5000;
+
+    private final Instrumentation mInstrumentation = InstrumentationRegistry.getInstrumentation();
+
+    @After
+    public void tearDown() {
+        mInstrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                RecentTasksLoader.killInstance();
+            }
+        });
+    }
+
+    @Test
+    public void burstIsDeliveredOnce() throws InterruptedException {
+        final AtomicInteger calls = new AtomicInteger();
+        final Set<Integer> changedIds = new HashSet<Integer>();
+        final CountDownLatch delivered = new CountDownLatch(1);
+        final TaskStackMonitor.ManualEventSource source = new TaskStackMonitor.ManualEventSource();
+        final TaskStackMonitor monitor = new TaskStackMonitor(source,
+                new TaskStackMonitor.OnTaskStackChangedListener() {
+            @Override
+            public void onTaskStackChanged(Set<Integer> snapshotChangedIds) {
+                calls.incrementAndGet();
+                synchronized (changedIds) {
+                    changedIds.addAll(snapshotChangedIds);
+                }
+                delivered.countDown();
+            }
+        });
+        monitor.start();
+        try {
+            source.dispatch(TaskStackMonitor.EVENT_TASK_CREATED, 1);
+            source.dispatch(TaskStackMonitor.EVENT_TASK_MOVED_TO_FRONT, 1);
+            source.dispatch(TaskStackMonitor.EVENT_TASK_SNAPSHOT_CHANGED, 1);
+            source.dispatch(TaskStackMonitor.EVENT_STACK_CHANGED, -1);
+            source.dispatch(TaskStackMonitor.EVENT_TASK_SNAPSHOT_CHANGED, 2);
+
+            assertTrue("no delivery", delivered.await(LOAD_TIMEOUT_MS, TimeUnit.MILLISECONDS));
+            SystemClock.sleep(SETTLE_MS);
+            assertEquals(1, calls.get());
+            synchronized (changedIds) {
+                assertEquals(2, changedIds.size());
+                assertTrue(changedIds.contains(1));
+                assertTrue(changedIds.contains(2));
+            }
+        } finally {
+            monitor.stop();
+        }
+    }
+
+    @Test
+    public void stackEventRefreshesLoader() {
+        final Context context = mInstrumentation.getTargetContext();
+        final SwitchConfiguration config = SwitchConfiguration.getInstance(context);
+        // a time filtered list is never current
+        assumeTrue(!config.mFilterActive || config.mFilterTime == 0);
+
+        final TaskStackMonitor.ManualEventSource source = new TaskStackMonitor.ManualEventSource();
+        final AtomicBoolean current = new AtomicBoolean();
+        mInstrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                RecentTasksLoader loader = RecentTasksLoader.getInstance(context);
+                loader.startTaskStackMonitor(source);
+                current.set(loader.isTaskListCurrent());
+            }
+        });
+        assertFalse("nothing loaded yet", current.get());
+
+        source.dispatch(TaskStackMonitor.EVENT_TASK_MOVED_TO_FRONT, -1);
+        source.dispatch(TaskStackMonitor.EVENT_STACK_CHANGED, -1);
+
+        // the refresh runs without a show
+        final long deadline = SystemClock.uptimeMillis() + LOAD_TIMEOUT_MS;
+        while (!current.get() && SystemClock.uptimeMillis() < deadline) {
+            SystemClock.sleep(50);
+            mInstrumentation.runOnMainSync(new Runnable() {
+                @Override
+                public void run() {
+                    RecentTasksLoader loader = RecentTasksLoader.getInstance(context);
+                    current.set(loader.isTaskListLoaded() && loader.isTaskListCurrent());
+                }
+            });
+        }
+        assertTrue("list not refreshed", current.get());
+    }
+}